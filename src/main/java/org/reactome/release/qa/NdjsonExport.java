@@ -0,0 +1,420 @@
+package org.reactome.release.qa;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Writes the apportioned report lines of a reports directory as
+ * newline-delimited JSON, one record per report line, e.g.:
+ * <pre>
+ * {"report":"CuratorQA/Attribute_Value_Missing.tsv","priority":"High",
+ *  "recipients":["curator@example.org"],"DB_ID":"123",
+ *  "cells":{"DB_ID":"123","MostRecentAuthor":"Doe, J"}}
+ * </pre>
+ * (shown wrapped, but written as a single line).
+ *
+ * On close, a tab-separated sidecar offset index is written to the
+ * export file path with the <code>.idx</code> extension appended.
+ * The index has columns Index, Key, Offset, Length and Rows, where
+ * <em>Index</em> is either <code>report</code> or <code>recipient</code>,
+ * <em>Key</em> is the report path or recipient email, and the
+ * remaining columns locate a contiguous run of records by byte offset
+ * and byte length. Each report occupies one run. A recipient has one
+ * run for each contiguous sequence of records which it receives.
+ *
+ * The records of a report are clustered by recipient set, in the order
+ * in which each recipient set first occurs in the report, and are in
+ * report line order within a recipient set. Thus a curator has one run
+ * per report for the lines which it alone authored, and a coordinator,
+ * who receives every line, has a single run for the whole export. The
+ * index size is therefore proportional to the number of reports and
+ * recipients rather than the number of report lines. A recipient set
+ * is buffered in memory up to {@link #BUCKET_SIZE} bytes, beyond which
+ * the buffered records are spilled to a temporary file until the end
+ * of the report.
+ */
+class NdjsonExport implements Closeable {
+
+    /** The export file name in the reports directory. */
+    static final String EXPORT_FILE_NM = "notifications.ndjson";
+
+    /** The index file extension appended to the export file name. */
+    static final String INDEX_FILE_EXT = ".idx";
+
+    static final String REPORT_INDEX = "report";
+
+    static final String RECIPIENT_INDEX = "recipient";
+
+    /** The index file headings. */
+    static final String[] INDEX_HDGS = {
+            "Index", "Key", "Offset", "Length", "Rows"
+    };
+
+    /** The maximum bytes buffered in memory for one recipient set. */
+    static final int BUCKET_SIZE = 64 * 1024;
+
+    private static final String INDEX_DELIMITER = "\t";
+
+    private final File file;
+
+    private final OutputStream os;
+
+    // The current byte offset.
+    private long offset;
+
+    // The current report path, priority and start offset.
+    private String report;
+    private String priority;
+    private long reportStart;
+    private long reportRows;
+
+    // The current report {recipient set: buffered records} map in
+    // recipient set first occurrence order.
+    private final Map<List<String>, ByteArrayOutputStream> buckets =
+            new LinkedHashMap<List<String>, ByteArrayOutputStream>();
+
+    // The current report {recipient set: row count} map.
+    private final Map<List<String>, Long> bucketRows = new HashMap<List<String>, Long>();
+
+    // The current report {recipient set: spilled chunks} map. Each
+    // chunk is {spill file offset, length}.
+    private final Map<List<String>, List<long[]>> spilled =
+            new HashMap<List<String>, List<long[]>>();
+
+    // The temporary spill file, created on demand.
+    private File spillFile;
+    private RandomAccessFile spill;
+
+    // The {report: run} index in report order.
+    private final Map<String, long[]> reportIndex =
+            new LinkedHashMap<String, long[]>();
+
+    // The {recipient: runs} index. Each run is {offset, length, rows}.
+    private final Map<String, List<long[]>> recipientIndex =
+            new LinkedHashMap<String, List<long[]>>();
+
+    NdjsonExport(File file) throws IOException {
+        this.file = file;
+        this.os = new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @param file the export file
+     * @return the sidecar index file
+     */
+    static File getIndexFile(File file) {
+        return new File(file.getPath() + INDEX_FILE_EXT);
+    }
+
+    /**
+     * Starts the records of the given report.
+     *
+     * @param report the report path relative to the reports directory
+     * @param priority the report priority
+     */
+    void beginReport(String report, String priority) {
+        this.report = report;
+        this.priority = priority;
+        this.reportStart = offset;
+        this.reportRows = 0;
+    }
+
+    /**
+     * Writes one report line record.
+     *
+     * @param recipients the line recipient emails
+     * @param dbId the line DB ID, or null if there is none
+     * @param headers the report column headers
+     * @param cells the report line
+     * @throws IOException
+     */
+    void write(Collection<String> recipients, String dbId, List<String> headers,
+            List<String> cells) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"report\":");
+        appendJson(sb, report);
+        sb.append(",\"priority\":");
+        appendJson(sb, priority);
+        sb.append(",\"recipients\":[");
+        boolean isFirst = true;
+        for (String recipient: recipients) {
+            if (!isFirst) {
+                sb.append(',');
+            }
+            isFirst = false;
+            appendJson(sb, recipient);
+        }
+        sb.append("],\"DB_ID\":");
+        appendJson(sb, dbId);
+        sb.append(",\"cells\":{");
+        for (int i = 0; i < cells.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            // A cell without a header is keyed by its column number.
+            String key = i < headers.size() ? headers.get(i) : Integer.toString(i + 1);
+            appendJson(sb, key);
+            sb.append(':');
+            appendJson(sb, cells.get(i));
+        }
+        sb.append("}}\n");
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        List<String> key = new ArrayList<String>(recipients);
+        ByteArrayOutputStream bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new ByteArrayOutputStream();
+            buckets.put(key, bucket);
+        }
+        bucket.write(bytes);
+        bucketRows.merge(key, 1L, Long::sum);
+        reportRows++;
+        if (bucket.size() >= BUCKET_SIZE) {
+            spill(key, bucket);
+        }
+    }
+
+    /**
+     * Writes the clustered records of the current report.
+     *
+     * @throws IOException
+     */
+    void endReport() throws IOException {
+        for (Entry<List<String>, ByteArrayOutputStream> entry: buckets.entrySet()) {
+            List<String> key = entry.getKey();
+            long start = offset;
+            List<long[]> chunks = spilled.get(key);
+            if (chunks != null) {
+                for (long[] chunk: chunks) {
+                    copySpilled(chunk[0], chunk[1]);
+                }
+            }
+            ByteArrayOutputStream bucket = entry.getValue();
+            bucket.writeTo(os);
+            offset += bucket.size();
+            long[] run = { start, offset - start, bucketRows.get(key) };
+            for (String recipient: key) {
+                addToRun(recipientIndex, recipient, run.clone());
+            }
+        }
+        if (report != null && reportRows > 0) {
+            long[] run = { reportStart, offset - reportStart, reportRows };
+            reportIndex.put(report, run);
+        }
+        buckets.clear();
+        bucketRows.clear();
+        spilled.clear();
+        if (spill != null) {
+            spill.setLength(0);
+        }
+        report = null;
+        priority = null;
+    }
+
+    /**
+     * Flushes the records and writes the sidecar index.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            endReport();
+        } finally {
+            os.close();
+            if (spill != null) {
+                spill.close();
+                spillFile.delete();
+            }
+        }
+        writeIndex(getIndexFile(file), reportIndex, recipientIndex);
+    }
+
+    /**
+     * Concatenates the given exports into the target export and
+     * writes the combined index. The part exports and their indexes
+     * are deleted.
+     *
+     * @param parts the export files to merge
+     * @param target the merged export file
+     * @throws IOException
+     */
+    static void merge(List<File> parts, File target) throws IOException {
+        Map<String, long[]> reportIndex = new LinkedHashMap<String, long[]>();
+        Map<String, List<long[]>> recipientIndex = new LinkedHashMap<String, List<long[]>>();
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(target));
+        long base = 0;
+        try {
+            for (File part: parts) {
+                if (!part.exists()) {
+                    continue;
+                }
+                File partIndexFile = getIndexFile(part);
+                BufferedReader br = new BufferedReader(new FileReader(partIndexFile));
+                try {
+                    // Skip the heading.
+                    String line = br.readLine();
+                    while ((line = br.readLine()) != null) {
+                        String[] fields = line.split(INDEX_DELIMITER);
+                        long[] run = {
+                                base + Long.parseLong(fields[2]),
+                                Long.parseLong(fields[3]),
+                                Long.parseLong(fields[4])
+                        };
+                        if (REPORT_INDEX.equals(fields[0])) {
+                            reportIndex.put(fields[1], run);
+                        } else {
+                            addToRun(recipientIndex, fields[1], run);
+                        }
+                    }
+                } finally {
+                    br.close();
+                }
+                base += Files.copy(part.toPath(), os);
+                part.delete();
+                partIndexFile.delete();
+            }
+        } finally {
+            os.close();
+        }
+        writeIndex(getIndexFile(target), reportIndex, recipientIndex);
+    }
+
+    /**
+     * Moves the given recipient set buffer to the spill file.
+     */
+    private void spill(List<String> key, ByteArrayOutputStream bucket) throws IOException {
+        if (spill == null) {
+            File dir = file.getAbsoluteFile().getParentFile();
+            spillFile = File.createTempFile(file.getName(), ".spill", dir);
+            spill = new RandomAccessFile(spillFile, "rw");
+        }
+        long start = spill.length();
+        spill.seek(start);
+        spill.write(bucket.toByteArray());
+        List<long[]> chunks = spilled.get(key);
+        if (chunks == null) {
+            chunks = new ArrayList<long[]>();
+            spilled.put(key, chunks);
+        }
+        chunks.add(new long[] { start, bucket.size() });
+        bucket.reset();
+    }
+
+    /**
+     * Copies the given spill file chunk to the export.
+     */
+    private void copySpilled(long start, long length) throws IOException {
+        byte[] buf = new byte[(int) length];
+        spill.seek(start);
+        spill.readFully(buf);
+        os.write(buf);
+        offset += length;
+    }
+
+    private static void addToRun(Map<String, List<long[]>> recipientIndex,
+            String recipient, long[] run) {
+        List<long[]> runs = recipientIndex.get(recipient);
+        if (runs == null) {
+            runs = new ArrayList<long[]>();
+            recipientIndex.put(recipient, runs);
+        }
+        // Extend the last run if this run immediately follows it.
+        if (!runs.isEmpty()) {
+            long[] last = runs.get(runs.size() - 1);
+            if (last[0] + last[1] == run[0]) {
+                last[1] += run[1];
+                last[2] += run[2];
+                return;
+            }
+        }
+        runs.add(run);
+    }
+
+    private static void writeIndex(File indexFile, Map<String, long[]> reportIndex,
+            Map<String, List<long[]>> recipientIndex) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(indexFile));
+        try {
+            bw.write(String.join(INDEX_DELIMITER, INDEX_HDGS));
+            bw.newLine();
+            for (Entry<String, long[]> entry: reportIndex.entrySet()) {
+                writeIndexLine(bw, REPORT_INDEX, entry.getKey(), entry.getValue());
+            }
+            for (Entry<String, List<long[]>> entry: recipientIndex.entrySet()) {
+                for (long[] run: entry.getValue()) {
+                    writeIndexLine(bw, RECIPIENT_INDEX, entry.getKey(), run);
+                }
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    private static void writeIndexLine(BufferedWriter bw, String index, String key,
+            long[] run) throws IOException {
+        bw.write(index);
+        bw.write(INDEX_DELIMITER);
+        bw.write(key);
+        for (long value: run) {
+            bw.write(INDEX_DELIMITER);
+            bw.write(Long.toString(value));
+        }
+        bw.newLine();
+    }
+
+    private static void appendJson(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+}
@@ -13,17 +13,24 @@ import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -70,6 +77,8 @@ import com.opencsv.CSVReaderHeaderAwareBuilder;
  * <li><code>curators.csv</code> - the list of potential curators</li>
  * <li><code>mail.properties</code> - the JavaMail properties</li>
  * </ul>
+ * The optional <code>database.properties</code> file is required for
+ * the <code>--enrich</code> option described below.
  * 
  * <code>descriptions.tsv</code> has columns Display Name, Priority
  * and Description. <em>Display Name</em> must match the corresponding
@@ -89,6 +98,53 @@ import com.opencsv.CSVReaderHeaderAwareBuilder;
  * <li><code>mail.smtp.port</code> - the optional mail port (default 25)</li>
  * </ul>
  * 
+ * The command line is:
+ * <pre>
+ * Notify [--ndjson] [--shards n [--worker-hosts host,...]] [--blockers-first]
+ *        [--enrich] [--rollup-threshold n [--rollup-samples k] [--rollup-column header]]
+ *        [--no-send] [--threads n] reports_dir...
+ * </pre>
+ * The <code>--ndjson</code> option writes every apportioned report line
+ * to <code>notifications.ndjson</code> in the reports directory, along
+ * with a sidecar offset index by report and by recipient
+ * (cf. {@link NdjsonExport}).
+ * 
+ * The <code>--shards</code> option partitions the report files across
+ * <em>n</em> worker processes. The workers render the curator HTML files
+ * and this coordinating process consolidates the summary and sends the
+ * notifications. The workers run on this host unless the
+ * <code>--worker-hosts</code> option lists the hosts to run them on
+ * (cf. {@link ShardedNotify}).
+ * 
+ * The <code>--blockers-first</code> option renders the reports in priority
+ * order and sends a Blocker-only notification to the affected recipients
+ * as soon as the Blocker reports are rendered, followed by the full
+ * notification. In either case, the time from the start of processing a
+ * reports directory to its first notification is logged.
+ * 
+ * The <code>--enrich</code> option resolves the display name and most recent
+ * author of report lines which lack them from the slice database, so that
+ * those lines reach the responsible curator (cf. {@link SliceEnricher}).
+ * The <code>database.properties</code> file has the slice database
+ * <code>dbHost</code>, <code>dbPort</code>, <code>dbUser</code> and
+ * <code>dbPwd</code> connection properties.
+ * 
+ * The <code>--rollup-threshold</code> option limits the size of each
+ * recipient report page. If a recipient has more than <em>n</em> lines in
+ * a report, then the page shows the line count of each value in the
+ * <code>--rollup-column</code> column (default the schema class column)
+ * and at most <em>k</em> sample lines of each value (default 10) rather
+ * than every line (cf. {@link ReportRollup}). The rollup column must be
+ * in at least one report of each reports directory. A report without the
+ * column is grouped by the default column.
+ * 
+ * More than one reports directory can be given, e.g. to backfill several
+ * weeks. The configuration files are then loaded once and the directories
+ * are processed concurrently by <code>--threads</code> threads (default
+ * the lesser of the directory count and the processor count). The
+ * <code>--no-send</code> option renders the reports without sending any
+ * notification. The throughput of each directory is logged.
+ * 
  * @author Fred Loney <loneyf@ohsu.edu>
  */
 public class Notify {
@@ -99,6 +155,10 @@ public class Notify {
 
     private static final String DEF_PRIORITY = "Medium";
 
+    /** The priorities in order of decreasing importance. */
+    private static final List<String> PRIORITY_ORDER =
+            Arrays.asList("Blocker", "High", "Medium");
+
     private static final String DB_NAME_PREFIX = "test_slice_";
 
     private static final String SUMMARY_TITLE = "QA Report Summary";
@@ -131,6 +191,34 @@ public class Notify {
     
     private static final String DESCRIPTIONS_FILE = "descriptions.tsv";
     
+    private static final String DATABASE_CONFIG_FILE = "database.properties";
+    
+    private static final String NDJSON_OPT = "--ndjson";
+    
+    private static final String SHARDS_OPT = "--shards";
+    
+    private static final String WORKER_HOSTS_OPT = "--worker-hosts";
+    
+    private static final String BLOCKERS_FIRST_OPT = "--blockers-first";
+    
+    private static final String ENRICH_OPT = "--enrich";
+    
+    private static final String ROLLUP_THRESHOLD_OPT = "--rollup-threshold";
+    
+    private static final String ROLLUP_SAMPLES_OPT = "--rollup-samples";
+    
+    private static final String ROLLUP_COLUMN_OPT = "--rollup-column";
+    
+    private static final String NO_SEND_OPT = "--no-send";
+    
+    private static final String THREADS_OPT = "--threads";
+    
+    /** The internal worker option followed by the shard list file. */
+    static final String SHARD_OPT = "--shard";
+    
+    /** The internal worker option followed by the coordinator host name. */
+    static final String HOST_NAME_OPT = "--host-name";
+    
     // The release coordinators.
     private static final Collection<String> COORDINATOR_NAMES =
             new HashSet<String>(2);
@@ -142,84 +230,274 @@ public class Notify {
     
     private static final String NONCOORDINATOR_PRELUDE =
             "You are listed as the most recent author in the following automated QA reports:";
+    
+    private static final String BLOCKER_PRELUDE =
+            "The automated QA checks found the following Blocker issues. " +
+            "The full QA report notification will follow:";
 
-    // The author is in the most recent modification column, which
-    // has variant spellings.
-    private static final String[] AUTHOR_HEADERS = {
-            "Modified",
-            "MostRecentAuthor",
-            "LastAuthor"
-    };
+    // The {report author: recipient email} cache shared by every
+    // reports directory. The email is empty if the author is not
+    // a recipient.
+    private static final Map<String, String> AUTHOR_RECIPIENTS =
+            new ConcurrentHashMap<String, String>();
 
-    // The DB ID columns have variant spellings.
-    private static final String[] DB_ID_HEADERS = { "DB_ID", "DBID" };
-    
     private static final Logger logger = LogManager.getLogger();
     
     // A very simple QA report representation.
     static class QAReport {
+        ReportSchema schema;
         List<String> headers;
         List<List<String>> lines;
         
-        public QAReport(List<String> headers, List<List<String>> lines) {
-            this.headers = headers;
+        public QAReport(ReportSchema schema, List<List<String>> lines) {
+            this.schema = schema;
+            this.headers = schema.getHeaders();
             this.lines = lines;
         }
     
     }
 
+    // The command line settings and the configuration shared by
+    // every reports directory.
+    private static class Settings {
+        boolean isNdjson;
+        boolean isBlockersFirst;
+        boolean isEnrich;
+        boolean isSend = true;
+        // The rollup settings, or null if there is no rollup threshold.
+        ReportRollup.Options rollupOptions;
+        int shardCnt = 1;
+        List<String> workerHosts = new ArrayList<String>();
+        // The batch thread count, or 0 for the default.
+        int threadCnt;
+        // The mail properties.
+        Properties props;
+        // The {curator:email} lookup map.
+        Map<String, String> emailLookup;
+        // The {QA check: description} lookup map.
+        Map<String, String> descriptions;
+        // The {QA check: priority} lookup map.
+        Map<String, String> priorities;
+        // The host name to prepend to URLs.
+        String hostName;
+    }
+
     public static void main(String[] args) throws Exception {
+        // Parse command line options.
+        Settings settings = new Settings();
+        Integer rollupSamples = null;
+        String rollupColumn = null;
+        File shardFile = null;
+        String hostNameOpt = null;
+        int argNdx = 0;
+        while (argNdx < args.length && args[argNdx].startsWith("--")) {
+            String opt = args[argNdx++];
+            if (NDJSON_OPT.equals(opt)) {
+                settings.isNdjson = true;
+                continue;
+            }
+            if (BLOCKERS_FIRST_OPT.equals(opt)) {
+                settings.isBlockersFirst = true;
+                continue;
+            }
+            if (ENRICH_OPT.equals(opt)) {
+                settings.isEnrich = true;
+                continue;
+            }
+            if (NO_SEND_OPT.equals(opt)) {
+                settings.isSend = false;
+                continue;
+            }
+            if (argNdx == args.length) {
+                System.err.println("Missing the " + opt + " option value.");
+                System.exit(1);
+            }
+            String value = args[argNdx++];
+            if (SHARDS_OPT.equals(opt)) {
+                settings.shardCnt = Integer.parseInt(value);
+            } else if (WORKER_HOSTS_OPT.equals(opt)) {
+                settings.workerHosts.addAll(Arrays.asList(value.split(",")));
+            } else if (THREADS_OPT.equals(opt)) {
+                settings.threadCnt = Integer.parseInt(value);
+            } else if (SHARD_OPT.equals(opt)) {
+                shardFile = new File(value);
+            } else if (HOST_NAME_OPT.equals(opt)) {
+                hostNameOpt = value;
+            } else if (ROLLUP_THRESHOLD_OPT.equals(opt)) {
+                settings.rollupOptions = new ReportRollup.Options();
+                settings.rollupOptions.threshold = Integer.parseInt(value);
+            } else if (ROLLUP_SAMPLES_OPT.equals(opt)) {
+                rollupSamples = Integer.parseInt(value);
+            } else if (ROLLUP_COLUMN_OPT.equals(opt)) {
+                rollupColumn = value;
+            } else {
+                System.err.println("Unrecognized option: " + opt);
+                System.exit(1);
+            }
+        }
+        if (settings.rollupOptions != null) {
+            settings.rollupOptions.column = rollupColumn;
+            if (rollupSamples != null) {
+                settings.rollupOptions.samples = rollupSamples;
+            }
+        } else if (rollupSamples != null || rollupColumn != null) {
+            System.err.println("The rollup options require the " +
+                    ROLLUP_THRESHOLD_OPT + " option.");
+            System.exit(1);
+        }
         // Parse command line arguments.
-        if (args.length == 0) {
+        if (argNdx == args.length) {
             System.err.println("Missing the reports directory command argument.");
             System.exit(1);
         }
-        if (args.length > 1) {
+        if (shardFile != null && args.length > argNdx + 1) {
             String extraneous =
-                    String.join(", ", Arrays.asList(args).subList(1, args.length));
+                    String.join(", ", Arrays.asList(args).subList(argNdx + 1, args.length));
             System.err.println("Extraneous arguments: " + extraneous);
             System.exit(1);
         }
-        String rptsDirArg = args[0];
+        // The QA reports directories.
+        List<File> rptsDirs = new ArrayList<File>();
+        for (String rptsDirArg: Arrays.asList(args).subList(argNdx, args.length)) {
+            File rptsDir = new File(rptsDirArg);
+            if (!rptsDir.exists()) {
+                System.err.println("Reports directory not found: " + rptsDir);
+                System.exit(1);
+            }
+            rptsDirs.add(rptsDir);
+        }
+        // Reject a rollup column which is not in any report, since the
+        // reports would silently be grouped by the default column.
+        // A worker relies on the coordinator check.
+        String rollupCol = settings.rollupOptions == null ? null : settings.rollupOptions.column;
+        if (rollupCol != null && shardFile == null) {
+            for (File rptsDir: rptsDirs) {
+                if (!hasReportColumn(rptsDir, rollupCol)) {
+                    System.err.println("The " + ROLLUP_COLUMN_OPT + " header " + rollupCol +
+                            " is not in any report in " + rptsDir);
+                    System.exit(1);
+                }
+            }
+        }
         
+        // The configuration is loaded once for every reports directory.
         // The mail properties.
-        Properties props = loadProperties();
+        settings.props = loadProperties();
         
         // The {curator:email} lookup map.
-        Map<String, String> emailLookup = null;
         try {
-            emailLookup = getCuratorEmailLookup();
+            settings.emailLookup = getCuratorEmailLookup();
         } catch (Exception e) {
             System.err.println("Could not read the curator email file: ");
             System.err.println(e);
             System.exit(1);
         }
         
-        // The {QA check: [description, priority]} lookup map.
-        Map<String, List<String>> qaInfo = null;
+        // The {QA check: description} and {QA check: priority} lookup maps.
+        settings.descriptions = new HashMap<String, String>();
+        settings.priorities = new HashMap<String, String>();
         try {
-            qaInfo = getDescriptions();
+            loadDescriptions(settings.descriptions, settings.priorities);
         } catch (Exception e) {
             System.err.println("Could not read the descriptions file: ");
             throw e;
         }
-        // Split into separate description and priorit lookup maps.
-        Map<String, String> descriptions = new HashMap<String, String>();
-        Map<String, String> priorities = new HashMap<String, String>();
-        if (qaInfo != null) {
-            for (Entry<String, List<String>> entry: qaInfo.entrySet()) {
-                String key = entry.getKey();
-                List<String> info = entry.getValue();
-                String priority = info.get(0);
-                if (priority == null) {
-                    priority = DEF_PRIORITY;
-                }
-                priorities.put(key, priority);
-                String description = info.get(1);
-                descriptions.put(key, description);
+        
+        // The prefix to prepend to URLs. A worker uses the
+        // coordinator host name.
+        settings.hostName = hostNameOpt == null ? getHostName() : hostNameOpt;
+
+        // A worker only renders its shard.
+        if (shardFile != null) {
+            renderShard(rptsDirs.get(0), shardFile, settings);
+            return;
+        }
+        if (rptsDirs.size() == 1) {
+            try {
+                processReportsDir(rptsDirs.get(0), settings);
+            } catch (IllegalStateException | SQLException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
             }
+            return;
         }
-        
+
+        // Process the reports directories concurrently.
+        int threadCnt = settings.threadCnt > 0 ? settings.threadCnt :
+            Math.min(rptsDirs.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threadCnt);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(rptsDirs.size());
+        for (File rptsDir: rptsDirs) {
+            futures.add(executor.submit(() -> {
+                processReportsDir(rptsDir, settings);
+                return null;
+            }));
+        }
+        executor.shutdown();
+        List<File> failures = new ArrayList<File>();
+        for (int i = 0; i < rptsDirs.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                logger.error("Could not process " + rptsDirs.get(i), e.getCause());
+                failures.add(rptsDirs.get(i));
+            }
+        }
+        if (!failures.isEmpty()) {
+            System.err.println("Notification was not successful for: " + failures);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Renders the curator HTML files of the given shard and writes the
+     * shard manifest.
+     * 
+     * @param rptsDir the reports directory
+     * @param shardFile the shard list file
+     * @param settings the worker settings
+     * @throws Exception
+     */
+    private static void renderShard(File rptsDir, File shardFile, Settings settings)
+            throws Exception {
+        String dbName = DB_NAME_PREFIX + rptsDir.getName();
+        // The {recipient: {report file: html file}} map.
+        Map<String, Map<File, File>> notifications =
+                new HashMap<String, Map<File, File>>();
+        List<File> shardRptFiles = ShardedNotify.readShard(shardFile, rptsDir);
+        NdjsonExport export = null;
+        if (settings.isNdjson) {
+            export = new NdjsonExport(ShardedNotify.getExportFile(shardFile));
+        }
+        SliceEnricher enricher = settings.isEnrich ? connectEnricher(dbName) : null;
+        try {
+            renderReports(shardRptFiles, settings.emailLookup, settings.descriptions,
+                    settings.priorities, settings.hostName, dbName, notifications,
+                    export, enricher, settings.rollupOptions);
+        } finally {
+            if (export != null) {
+                export.close();
+            }
+            if (enricher != null) {
+                enricher.close();
+            }
+        }
+        File manifestFile = ShardedNotify.getManifestFile(shardFile);
+        ShardedNotify.writeManifest(manifestFile, notifications, rptsDir);
+    }
+
+    /**
+     * Renders the curator HTML files of the given reports directory,
+     * consolidates the summary and notifies the recipients.
+     * 
+     * @param rptsDir the reports directory
+     * @param settings the run settings
+     * @throws Exception
+     */
+    private static void processReportsDir(File rptsDir, Settings settings) throws Exception {
+        long startTime = System.currentTimeMillis();
+        Map<String, String> priorities = settings.priorities;
+        String hostName = settings.hostName;
         // The {recipient: {report file: html file}} map.
         Map<String, Map<File, File>> notifications =
                 new HashMap<String, Map<File, File>>();
@@ -229,15 +507,6 @@ public class Notify {
             notifications.put(coordinator, new HashMap<File, File>());
         }
         
-        // The prefix to prepend to URLs.
-        String hostName = getHostName();
-
-        // The QA reports directory.
-        File rptsDir = new File(rptsDirArg);
-        if (!rptsDir.exists()) {
-            System.err.println("Reports directory not found: " + rptsDir);
-            System.exit(1);
-        }
         // The database name.
         String dbNameSuffix = rptsDir.getName();
         String dbName = DB_NAME_PREFIX + dbNameSuffix;
@@ -252,9 +521,220 @@ public class Notify {
             hostPrefix = hostPrefix + "/";
         }
 
+        // Collect the report files.
+        List<File> rptFiles = getReportFiles(rptsDir, summaryFiles);
+        for (File file: rptFiles) {
+            String fileName = file.getName();
+            rptTitles.put(fileName, toReportTitle(fileName));
+        }
+
+        // The optional line export, written in the same pass as the HTML.
+        File exportFile = null;
+        if (settings.isNdjson) {
+            exportFile = new File(rptsDir, NdjsonExport.EXPORT_FILE_NM);
+        }
+        // The rendering phases. If Blocker reports are sent early, then
+        // the reports are rendered in priority order and the Blocker
+        // reports are a separate first phase.
+        List<List<File>> phases = new ArrayList<List<File>>(2);
+        if (settings.isBlockersFirst) {
+            Comparator<File> byPriority = Comparator.comparingInt(
+                    file -> getPriorityRank(priorities.get(toDisplayName(file.getName()))));
+            rptFiles.sort(byPriority);
+            List<File> blockerFiles = rptFiles.stream()
+                    .filter(file -> isBlocker(priorities.get(toDisplayName(file.getName()))))
+                    .collect(Collectors.toList());
+            phases.add(blockerFiles);
+            phases.add(rptFiles.subList(blockerFiles.size(), rptFiles.size()));
+        } else {
+            phases.add(rptFiles);
+        }
+        // The sharded rendering phase exports.
+        List<File> exportParts = new ArrayList<File>();
+        // The in-process export is open for every rendering phase.
+        NdjsonExport export = null;
+        // The in-process slice database enricher. Workers connect
+        // their own enricher.
+        SliceEnricher enricher = null;
+        // The sharded phase exports are only merged if more than one
+        // phase has reports.
+        long renderedPhaseCnt = phases.stream().filter(phase -> !phase.isEmpty()).count();
+        boolean isFirstSent = false;
+        try {
+            if (exportFile != null && settings.shardCnt <= 1) {
+                export = new NdjsonExport(exportFile);
+            }
+            if (settings.isEnrich && settings.shardCnt <= 1) {
+                enricher = connectEnricher(dbName);
+            }
+            for (int i = 0; i < phases.size(); i++) {
+                List<File> phaseFiles = phases.get(i);
+                if (phaseFiles.isEmpty()) {
+                    continue;
+                }
+                // Render the curator HTML files.
+                if (settings.shardCnt > 1) {
+                    File partFile = null;
+                    if (exportFile != null) {
+                        partFile = renderedPhaseCnt == 1 ? exportFile :
+                            new File(rptsDir, NdjsonExport.EXPORT_FILE_NM + "." + i);
+                        exportParts.add(partFile);
+                    }
+                    renderSharded(phaseFiles, rptsDir, settings, notifications, partFile);
+                } else {
+                    renderReports(phaseFiles, settings.emailLookup, settings.descriptions,
+                            priorities, hostName, dbName, notifications, export, enricher,
+                            settings.rollupOptions);
+                }
+                // Notify the Blocker recipients without waiting for the
+                // other reports.
+                if (settings.isBlockersFirst && settings.isSend && i == 0) {
+                    Set<File> blockerFiles = new HashSet<File>(phaseFiles);
+                    Map<String, Map<File, File>> blockerNtfs =
+                            new HashMap<String, Map<File, File>>();
+                    for (Entry<String, Map<File, File>> ntf: notifications.entrySet()) {
+                        Map<File, File> rptHtmlMap = ntf.getValue().entrySet().stream()
+                                .filter(entry -> blockerFiles.contains(entry.getKey()))
+                                .collect(Collectors.toMap(Entry::getKey, Entry::getValue));
+                        if (!rptHtmlMap.isEmpty()) {
+                            blockerNtfs.put(ntf.getKey(), rptHtmlMap);
+                        }
+                    }
+                    sendNotifications(blockerNtfs, rptTitles, null,
+                            hostPrefix, settings.emailLookup, settings.props, rptsDir);
+                    logFirstNotification(rptsDir, startTime);
+                    isFirstSent = true;
+                }
+            }
+        } finally {
+            // Close the export and enricher on failure as well.
+            try {
+                if (export != null) {
+                    export.close();
+                }
+            } finally {
+                if (enricher != null) {
+                    enricher.close();
+                }
+            }
+        }
+        if (export == null && exportParts.size() > 1) {
+            NdjsonExport.merge(exportParts, exportFile);
+        }
+        if (exportFile != null && exportFile.exists()) {
+            logger.info("Exported the report lines to " + exportFile);
+        }
+        
+        // Consolidate the summary files.
+        File consolidatedSummaryFile =
+                consolidateSummaries(rptsDir, summaryFiles, priorities, hostName);
+        
+        // Notify the coordinators and modifiers.
+        if (settings.isSend) {
+            sendNotifications(notifications, rptTitles, consolidatedSummaryFile,
+                    hostPrefix, settings.emailLookup, settings.props, rptsDir);
+            if (!isFirstSent) {
+                logFirstNotification(rptsDir, startTime);
+            }
+        }
+
+        // The throughput.
+        long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+        long byteCnt = rptFiles.stream().mapToLong(File::length).sum();
+        double seconds = elapsed / 1000.0;
+        logger.info(String.format(
+                "Processed %d reports (%.1f MB) in %s in %.1f seconds: %.1f reports/s, %.2f MB/s",
+                rptFiles.size(), byteCnt / 1e6, rptsDir, seconds,
+                rptFiles.size() / seconds, byteCnt / 1e6 / seconds));
+    }
+
+    /**
+     * Renders the given report files in worker processes and adds
+     * the worker results to the given notifications map.
+     */
+    private static void renderSharded(List<File> rptFiles, File rptsDir, Settings settings,
+            Map<String, Map<File, File>> notifications, File exportFile) throws Exception {
+        List<String> workerOpts = new ArrayList<String>();
+        if (settings.isNdjson) {
+            workerOpts.add(NDJSON_OPT);
+        }
+        if (settings.isEnrich) {
+            workerOpts.add(ENRICH_OPT);
+        }
+        ReportRollup.Options rollupOptions = settings.rollupOptions;
+        if (rollupOptions != null) {
+            workerOpts.add(ROLLUP_THRESHOLD_OPT);
+            workerOpts.add(Integer.toString(rollupOptions.threshold));
+            workerOpts.add(ROLLUP_SAMPLES_OPT);
+            workerOpts.add(Integer.toString(rollupOptions.samples));
+            if (rollupOptions.column != null) {
+                workerOpts.add(ROLLUP_COLUMN_OPT);
+                workerOpts.add(rollupOptions.column);
+            }
+        }
+        workerOpts.add(HOST_NAME_OPT);
+        workerOpts.add(settings.hostName);
+        Map<String, Map<File, File>> merged = ShardedNotify.render(rptsDir, rptFiles,
+                settings.shardCnt, settings.workerHosts, workerOpts, exportFile);
+        for (Entry<String, Map<File, File>> entry: merged.entrySet()) {
+            Map<File, File> curatorNtfs = notifications.get(entry.getKey());
+            if (curatorNtfs == null) {
+                notifications.put(entry.getKey(), entry.getValue());
+            } else {
+                curatorNtfs.putAll(entry.getValue());
+            }
+        }
+    }
+
+    private static SliceEnricher connectEnricher(String dbName) throws Exception {
+        File file = new File("resources" + File.separator + DATABASE_CONFIG_FILE);
+        try {
+            return SliceEnricher.connect(file, dbName);
+        } catch (SQLException e) {
+            String msg = "Could not connect to the slice database " + dbName + ": " + e;
+            throw new SQLException(msg, e);
+        }
+    }
+
+    /**
+     * Logs the time from the start of processing the given reports
+     * directory to its first notification.
+     * 
+     * @param rptsDir the reports directory
+     * @param startTime the reports directory processing start time
+     */
+    private static void logFirstNotification(File rptsDir, long startTime) {
+        long elapsed = System.currentTimeMillis() - startTime;
+        logger.info("Time to first notification for " + rptsDir + ": " + elapsed + " ms");
+    }
+
+    /**
+     * @param priority the report priority
+     * @return the priority sort order, with unknown priorities last
+     */
+    private static int getPriorityRank(String priority) {
+        int rank = PRIORITY_ORDER.indexOf(priority);
+        return rank == -1 ? PRIORITY_ORDER.size() : rank;
+    }
+
+    private static boolean isBlocker(String priority) {
+        return PRIORITY_ORDER.get(0).equals(priority);
+    }
+
+    /**
+     * Collects the <code>.tsv</code> report files in each reports
+     * subdirectory.
+     * 
+     * @param rptsDir the reports directory
+     * @param summaryFiles the list to which the summary files are added
+     * @return the report files other than the summary files
+     */
+    private static List<File> getReportFiles(File rptsDir, List<File> summaryFiles) {
+        List<File> rptFiles = new ArrayList<File>();
         // Iterator over each reports subdirectory.
         Collection<File> subdirs = Stream.of(rptsDir.listFiles())
                 .filter(File::isDirectory)
+                .filter(dir -> !ShardedNotify.SHARD_DIR_NM.equals(dir.getName()))
                 .collect(Collectors.toList());
         for (File dir: subdirs) {
             for (File file: dir.listFiles()) {
@@ -266,24 +746,64 @@ public class Notify {
                         summaryFiles.add(file);
                         continue;
                     }
-                    String title = toReportTitle(fileName);
-                    rptTitles.put(fileName, title);
-                    String displayName = toDisplayName(fileName);
-                    String description = descriptions.get(displayName);
-                    String priority = priorities.get(displayName);
-                    addNotifications(file, title, emailLookup, description,
-                            priority, hostName, dbName, notifications);
+                    rptFiles.add(file);
                 }
             }
         }
-        
-        // Consolidate the summary files.
-        File consolidatedSummaryFile =
-                consolidateSummaries(rptsDir, summaryFiles, priorities, hostName);
-        
-        // Notify the coordinators and modifiers.
-        sendNotifications(notifications, rptTitles, consolidatedSummaryFile,
-                hostPrefix, emailLookup, props, rptsDir);
+        return rptFiles;
+    }
+
+    /**
+     * @param rptsDir the reports directory
+     * @param header the column header
+     * @return whether a report in the given directory has the header
+     * @throws IOException
+     */
+    private static boolean hasReportColumn(File rptsDir, String header) throws IOException {
+        for (File rptFile: getReportFiles(rptsDir, new ArrayList<File>())) {
+            BufferedReader br = new BufferedReader(new FileReader(rptFile));
+            try {
+                if (readSchema(br).getHeaders().contains(header)) {
+                    return true;
+                }
+            } finally {
+                br.close();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes the curator HTML files for the given report files.
+     * 
+     * @param rptFiles the report files
+     * @param emailLookup the {curator: email} lookup map
+     * @param descriptions the {display name: description} lookup map
+     * @param priorities the {display name: priority} lookup map
+     * @param hostName the host name
+     * @param dbName the slice database name
+     * @param notifications the {recipient: {report file: html file}} map
+     * @param export the NDJSON export, or null if there is no export
+     * @param enricher the slice database enricher, or null if the
+     *     reports are not enriched
+     * @param rollupOptions the rollup settings, or null if oversized
+     *     pages are not rolled up
+     * @throws Exception
+     */
+    static void renderReports(List<File> rptFiles, Map<String, String> emailLookup,
+            Map<String, String> descriptions, Map<String, String> priorities,
+            String hostName, String dbName, Map<String, Map<File, File>> notifications,
+            NdjsonExport export, SliceEnricher enricher, ReportRollup.Options rollupOptions)
+                    throws Exception {
+        for (File file: rptFiles) {
+            String fileName = file.getName();
+            String title = toReportTitle(fileName);
+            String displayName = toDisplayName(fileName);
+            String description = descriptions.get(displayName);
+            String priority = priorities.get(displayName);
+            addNotifications(file, title, emailLookup, description,
+                    priority, hostName, dbName, notifications, export, enricher, rollupOptions);
+        }
     }
 
     private static String getHostName() throws UnknownHostException {
@@ -340,7 +860,7 @@ public class Notify {
         File consolidatedFile = new File(rptsDir, SUMMARY_NOTIFICATION_FILE_NM);
         List<String> headings = Arrays.asList(SUMMARY_HDGS);
         String dbName = DB_NAME_PREFIX + rptsDir.getName();
-        writeNotificationFile(consolidatedFile, SUMMARY_TITLE, null, null, hostName, dbName, headings, summaryLines);
+        writeNotificationFile(consolidatedFile, SUMMARY_TITLE, null, null, hostName, dbName, headings, summaryLines, null);
         
         return consolidatedFile;
     }
@@ -361,7 +881,7 @@ public class Notify {
         return properties;
     }
 
-    private static Map<String, String> getCuratorEmailLookup() throws Exception {
+    static Map<String, String> getCuratorEmailLookup() throws Exception {
         Map<String, String> map = new HashMap<String, String>();
         Consumer<String[]> consumer = new Consumer<String[]>() {
 
@@ -384,6 +904,31 @@ public class Notify {
         return map;
     }
 
+    /**
+     * Loads the QA check descriptions and priorities.
+     * 
+     * @param descriptions the {QA check: description} lookup map to fill
+     * @param priorities the {QA check: priority} lookup map to fill
+     * @throws Exception
+     */
+    static void loadDescriptions(Map<String, String> descriptions,
+            Map<String, String> priorities) throws Exception {
+        // The {QA check: [description, priority]} lookup map.
+        Map<String, List<String>> qaInfo = getDescriptions();
+        // Split into separate description and priorit lookup maps.
+        for (Entry<String, List<String>> entry: qaInfo.entrySet()) {
+            String key = entry.getKey();
+            List<String> info = entry.getValue();
+            String priority = info.get(0);
+            if (priority == null) {
+                priority = DEF_PRIORITY;
+            }
+            priorities.put(key, priority);
+            String description = info.get(1);
+            descriptions.put(key, description);
+        }
+    }
+
     private static Map<String, List<String>> getDescriptions() throws Exception {
         Map<String, List<String>> map = new HashMap<String, List<String>>();
         Consumer<String[]> consumer = new Consumer<String[]>() {
@@ -436,105 +981,143 @@ public class Notify {
         InputStream is;
         is = new FileInputStream(file);
         BufferedReader br = new BufferedReader(new InputStreamReader(is));
-        String line;
-        boolean isFirstLine = true;
-        List<String> headers = null;
+        ReportSchema schema = readSchema(br);
         List<List<String>> lines = new ArrayList<List<String>>();
-        while ((line = br.readLine()) != null) {
-            String[] content = line.split(SUMMARY_DELIMITER);
-            // The first line is a header.
-            if (isFirstLine) {
-                isFirstLine = false;
-                headers = Arrays.asList(content);
-            } else {
-                lines.add(Arrays.asList(content));
-            }
+        for (List<String> line: streamLines(br)) {
+            lines.add(line);
         }
         br.close();
         is.close();
         
-        return new QAReport(headers, lines);
+        return new QAReport(schema, lines);
+    }
+
+    /**
+     * Reads the report header line.
+     * 
+     * @param br the report reader
+     * @return the report schema
+     * @throws IOException
+     */
+    private static ReportSchema readSchema(BufferedReader br) throws IOException {
+        // The first line is a header. The column roles are resolved
+        // once per distinct header line.
+        String headerLine = br.readLine();
+        if (headerLine == null) {
+            headerLine = "";
+        }
+        return ReportSchema.forHeaderLine(headerLine, SUMMARY_DELIMITER);
+    }
+
+    /**
+     * @param br the report reader positioned after the header line
+     * @return the report lines, read as they are iterated
+     */
+    private static Iterable<List<String>> streamLines(BufferedReader br) {
+        return () -> br.lines()
+                .map(line -> Arrays.asList(line.split(SUMMARY_DELIMITER)))
+                .iterator();
     }
 
     private static void addNotifications(File rptFile, String title, Map<String, String> emailLookup,
-            String description, String priority, String hostName, String dbName, Map<String, Map<File, File>> notifications)
+            String description, String priority, String hostName, String dbName, Map<String, Map<File, File>> notifications,
+            NdjsonExport export, SliceEnricher enricher, ReportRollup.Options rollupOptions)
                     throws Exception {
-        // The QA report.
-        QAReport report = getQAReport(rptFile);
-        // The column headers.
-        List<String> headers = report.headers;
-        // The author headers begin with one of the author headers,
-        // e.g. MostRecentAuthor_1 is an author header.
-        List<Integer> authorIndexes = new ArrayList<Integer>();
-        for (String hdr : AUTHOR_HEADERS) {
-            int authorNdx = headers.indexOf(hdr);
-            if (authorNdx != -1) {
-                authorIndexes.add(authorNdx);
-            }
+        // The QA report. An enriched report is read in full, since the
+        // enricher resolves the DB IDs of the whole report at once.
+        // Otherwise, the report lines are streamed.
+        ReportSchema schema;
+        Iterable<List<String>> reportLines;
+        BufferedReader reader = null;
+        if (enricher != null) {
+            QAReport report = enricher.enrich(getQAReport(rptFile));
+            schema = report.schema;
+            reportLines = report.lines;
+        } else {
+            reader = new BufferedReader(new FileReader(rptFile));
+            schema = readSchema(reader);
+            reportLines = streamLines(reader);
         }
+        // The report headers.
+        List<String> headers = schema.getHeaders();
         String hostPrefix = PROTOCOL + "://" + hostName;
         if (!hostPrefix.endsWith("/")) {
             hostPrefix = hostPrefix + "/";
         }
+        // Without the rollup option, no recipient page is rolled up.
+        if (rollupOptions == null) {
+            rollupOptions = new ReportRollup.Options();
+            rollupOptions.threshold = Integer.MAX_VALUE;
+        }
+        boolean isRollup = rollupOptions.threshold != Integer.MAX_VALUE;
+        int groupNdx = ReportRollup.getGroupIndex(rollupOptions, schema);
+        if (isRollup && rollupOptions.column != null &&
+                !headers.contains(rollupOptions.column)) {
+            logger.warn("The rollup column " + rollupOptions.column + " is not in " +
+                    rptFile.getName() + "; the lines are grouped by the default column.");
+        }
+        int sortNdx = ReportRollup.getSortIndex(schema);
+        String groupHeader = groupNdx == -1 ? null : headers.get(groupNdx);
         // The {curator: lines} map.
-        Map<String, List<String>> linesMap = new HashMap<String, List<String>>();
+        Map<String, ReportRollup> linesMap = new HashMap<String, ReportRollup>();
         // Coordinators are notified of every file.
         for (String coordinator: COORDINATOR_EMAILS) {
-            linesMap.put(coordinator, new ArrayList<String>());
+            linesMap.put(coordinator, new ReportRollup(rollupOptions, groupHeader));
         }
-        // The DB ID column indexes match the pattern /.*DB_?ID/.
-        int dbIdNdx = getDbIdColumnIndex(report);
         // The DB ID link URL prefix.
         String instUrlPrefix = hostPrefix + INSTANCE_BROWSER_URL;
+        if (export != null) {
+            String rptPath = rptFile.getParentFile().getName() + "/" + rptFile.getName();
+            export.beginReport(rptPath, priority);
+        }
+        // The report line number.
+        long ordinal = 0;
         // Apportion report lines to the curators.       
-        for (List<String> line: report.lines) {
-            Set<String> authors = new HashSet<String>();
-            for (int authorNdx: authorIndexes) {
-                if (authorNdx >= line.size()) {
-                    continue;
-                }
-                String author = line.get(authorNdx);
-                if (author != null) {
-                    authors.add(author);
-                }
-            }
+        for (List<String> line: reportLines) {
+            // The author headers begin with one of the author headers,
+            // e.g. MostRecentAuthor_1 is an author header.
+            Set<String> authors = schema.getAuthors(line);
 
             // Convert the report line to HTML.
-            String html = createHTMLTableRow(line, dbIdNdx, instUrlPrefix);
+            String html = schema.renderRow(line, instUrlPrefix);
 
             // Coordinators get every line.
-            for (String coordinator: COORDINATOR_EMAILS) {
-                List<String> lines = linesMap.get(coordinator);
-                lines.add(html);
-            }
+            Set<String> recipients = new LinkedHashSet<String>(COORDINATOR_EMAILS);
 
-            // Convert the author string on the report to the standardized
-            // last,initial format for matching against the curators.
             for (String author: authors) {
-                // The author field format pseudo-regex is:
-                //   /last, *first|initial(, *date)?/
-                String[] authorFields = author.split(", *");
-                if (authorFields.length > 1) {
-                    String last = authorFields[0];
-                    String firstOrInitial = authorFields[1];
-                    String canonicalAuthor = canonicalizeRecipientName(last, firstOrInitial);
-                    // A coordinator might be an author, but already
-                    // has the lines.
-                    if (COORDINATOR_NAMES.contains(canonicalAuthor)) {
-                        continue;
-                    }
-                    // The email address.
-                    String recipient = emailLookup.get(canonicalAuthor);
-                    if (recipient != null) {
-                        List<String> lines = linesMap.get(recipient);
-                        if (lines == null) {
-                            lines = new ArrayList<String>();
-                            linesMap.put(recipient, lines);
-                        }
-                        lines.add(html);
-                    }
+                String recipient = AUTHOR_RECIPIENTS.computeIfAbsent(author,
+                        key -> getAuthorRecipient(key, emailLookup));
+                if (!recipient.isEmpty()) {
+                    recipients.add(recipient);
+                }
+            }
+
+            ReportRollup.Row row;
+            if (isRollup) {
+                row = new ReportRollup.Row(getCell(line, groupNdx), getCell(line, sortNdx),
+                        ordinal++, html);
+            } else {
+                row = new ReportRollup.Row(null, null, ordinal++, html);
+            }
+            for (String recipient: recipients) {
+                ReportRollup lines = linesMap.get(recipient);
+                if (lines == null) {
+                    lines = new ReportRollup(rollupOptions, groupHeader);
+                    linesMap.put(recipient, lines);
                 }
+                lines.add(row);
             }
+
+            if (export != null) {
+                String dbId = getCell(line, schema.getDbIdIndex());
+                export.write(recipients, dbId, headers, line);
+            }
+        }
+        if (reader != null) {
+            reader.close();
+        }
+        if (export != null) {
+            export.endReport();
         }
 
         // The reverse curator {email: name} lookup.
@@ -548,9 +1131,20 @@ public class Notify {
         }
 
         // Make the curator-specific HTML files.
-        for (Entry<String, List<String>> entry: linesMap.entrySet()) {
+        for (Entry<String, ReportRollup> entry: linesMap.entrySet()) {
             String recipient = entry.getKey();
-            List<String> lines = entry.getValue();
+            ReportRollup rollup = entry.getValue();
+            List<String> lines = rollup.getLines(headers.size());
+            // An oversized page shows the rollup rather than every line.
+            String note = null;
+            if (rollup.isRolledUp()) {
+                note = "There are " + rollup.getTotal() + " issues in this report. " +
+                        "They are summarized by " +
+                        (groupHeader == null ? "report" : groupHeader) +
+                        " with at most " + rollupOptions.samples +
+                        " sample issues each. The complete report is " +
+                        "<a href='" + rptFile.getName() + "'>" + rptFile.getName() + "</a>.";
+            }
             File dir = rptFile.getParentFile();
             String fileName = rptFile.getName();
             // The report file base name before the extension.
@@ -566,7 +1160,7 @@ public class Notify {
                 effectiveTitle += " New Issues";
             }
             // Write the custom curator file.
-            writeNotificationFile(curatorFile, effectiveTitle, description, priority, hostName, dbName, report.headers, lines);
+            writeNotificationFile(curatorFile, effectiveTitle, description, priority, hostName, dbName, headers, lines, note);
             // Add the custom curator file to the
             // {curator: {report file: curator file}} map.
             Map<File, File> curatorNtfs = notifications.get(recipient);
@@ -580,7 +1174,7 @@ public class Notify {
 
     private static void writeNotificationFile(File file, String title, String description,
             String priority, String hostName, String dbName, List<String> headers,
-            List<String> lines) throws IOException {
+            List<String> lines, String note) throws IOException {
         String header = createHTMLTableHeader(headers);
         BufferedWriter bw = new BufferedWriter(new FileWriter(file));
         try {
@@ -614,6 +1208,15 @@ public class Notify {
                 bw.write("</p>");
                 bw.newLine();
             }
+            // Add the note.
+            if (note != null) {
+                bw.write("<p>");
+                bw.newLine();
+                bw.write(note);
+                bw.newLine();
+                bw.write("</p>");
+                bw.newLine();
+            }
             // The issues.
             bw.write("<table>");
             bw.newLine();
@@ -672,16 +1275,44 @@ public class Notify {
         return sw.toString();
     }
 
-    private static int getDbIdColumnIndex(QAReport report) {
-        for (String dbHdr: DB_ID_HEADERS) {
-            for (int i = 0; i < report.headers.size(); i++) {
-                String hdr = report.headers.get(i);
-                if (hdr.endsWith(dbHdr)) {
-                    return i;
-                }
+    /**
+     * Converts the author string on the report to the standardized
+     * last,initial format for matching against the curators.
+     * 
+     * @param author the report author field
+     * @param emailLookup the {curator: email} lookup map
+     * @return the author email, or the empty string if the author
+     *     is not a curator or is a coordinator
+     */
+    private static String getAuthorRecipient(String author, Map<String, String> emailLookup) {
+        // The author field format pseudo-regex is:
+        //   /last, *first|initial(, *date)?/
+        String[] authorFields = author.split(", *");
+        if (authorFields.length > 1) {
+            String last = authorFields[0];
+            String firstOrInitial = authorFields[1];
+            String canonicalAuthor = canonicalizeRecipientName(last, firstOrInitial);
+            // A coordinator might be an author, but already
+            // has the lines.
+            if (COORDINATOR_NAMES.contains(canonicalAuthor)) {
+                return "";
+            }
+            // The email address.
+            String recipient = emailLookup.get(canonicalAuthor);
+            if (recipient != null) {
+                return recipient;
             }
         }
-        return -1;
+        return "";
+    }
+
+    /**
+     * @param line the report line
+     * @param ndx the column index, or -1 for none
+     * @return the column value, or null if there is none
+     */
+    private static String getCell(List<String> line, int ndx) {
+        return ndx != -1 && ndx < line.size() ? line.get(ndx) : null;
     }
 
     /**
@@ -711,30 +1342,6 @@ public class Notify {
         return sb.toString();
     }
 
-    private static String createHTMLTableRow(List<String> line, int dbIdNdx, String instUrlPrefix) {
-        StringBuffer sb = new StringBuffer();
-        sb.append("<tr>");
-        for (int i = 0; i < line.size(); i++) {
-            String col = line.get(i);
-            sb.append("<td>");
-            if (dbIdNdx == i) {
-                sb.append("<a href=");
-                sb.append(instUrlPrefix);
-                sb.append(col);
-                sb.append(">");
-                sb.append(col);
-                sb.append("</a>");
-            } else {
-                sb.append(col);
-            }
-            sb.append("</td>");
-        }
-        sb.append("</tr>");
-        sb.append(NL);
-
-        return sb.toString();
-    }
-
     private static void sendNotifications(Map<String, Map<File, File>> notifications,
             Map<String, String> rptTitles, File summaryFile, String hostPrefix,
             Map<String, String> emailLookup, Properties props, File rptsDir) throws Exception {
@@ -745,17 +1352,28 @@ public class Notify {
         }
     }
     
+    /**
+     * Sends the notification to the given recipient. If there is no
+     * summary file, then this is the early Blocker-only notification.
+     */
     private static void notify(String recipient, String dirUrl, Properties properties,
             Map<String, String> rptTitles, File summaryFile, Map<File, File> rptHtmlMap) throws Exception {
         Session session = Session.getDefaultInstance(properties);
         MimeMessage message = new MimeMessage(session);
         
-        message.setSubject("Reactome Weekly QA");
+        boolean isBlockerOnly = summaryFile == null;
+        if (isBlockerOnly) {
+            message.setSubject("Reactome Weekly QA Blockers");
+        } else {
+            message.setSubject("Reactome Weekly QA");
+        }
         if (!dirUrl.endsWith("/")) {
             dirUrl = dirUrl + "/";
         }
         StringBuffer sb = new StringBuffer();
-        if (COORDINATOR_EMAILS.contains(recipient)) {
+        if (isBlockerOnly) {
+            sb.append(BLOCKER_PRELUDE + NL + NL);
+        } else if (COORDINATOR_EMAILS.contains(recipient)) {
             sb.append(COORDINATOR_PRELUDE + NL + NL);
         } else {
             sb.append(NONCOORDINATOR_PRELUDE + NL + NL);
@@ -773,7 +1391,7 @@ public class Notify {
                 .sorted(compare).collect(Collectors.toList());
         // The diff email hyperlink items are captured in a separate group.
         List<String> diffs = new ArrayList<String>();
-        if (COORDINATOR_EMAILS.contains(recipient)) {
+        if (!isBlockerOnly && COORDINATOR_EMAILS.contains(recipient)) {
             // Add the summary hyperlink.
             sb.append("<h3>");
             sb.append("<a href='" + dirUrl + summaryFile.getName() + "'>");
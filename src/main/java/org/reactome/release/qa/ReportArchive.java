@@ -0,0 +1,183 @@
+package org.reactome.release.qa;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Packs a dated QA reports directory into a single archive file and
+ * reads individual reports back from the archive.
+ *
+ * The archive is a zip file. Each file is compressed separately and
+ * the zip central directory indexes the file offsets, so that a
+ * report or curator page is read from an archived week by a single
+ * seek without unpacking the rest of the archive.
+ *
+ * The command line is one of:
+ * <pre>
+ * ReportArchive pack reports_dir archive
+ * ReportArchive list archive
+ * ReportArchive cat archive path
+ * </pre>
+ * where <em>path</em> is the file path relative to the reports
+ * directory, e.g. <code>CuratorQA/Attribute_Value_Missing.tsv</code>.
+ * <code>cat</code> writes the file content to standard output.
+ */
+public class ReportArchive {
+
+    private static final String PACK_CMD = "pack";
+
+    private static final String LIST_CMD = "list";
+
+    private static final String CAT_CMD = "cat";
+
+    private static final String USAGE =
+            "Usage: ReportArchive pack reports_dir archive | list archive | cat archive path";
+
+    private static final Logger logger = LogManager.getLogger();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        String cmd = args[0];
+        if (PACK_CMD.equals(cmd) && args.length == 3) {
+            File rptsDir = new File(args[1]);
+            if (!rptsDir.isDirectory()) {
+                System.err.println("Reports directory not found: " + rptsDir);
+                System.exit(1);
+            }
+            int cnt = pack(rptsDir, new File(args[2]));
+            logger.info("Archived " + cnt + " files from " + rptsDir + " in " + args[2]);
+        } else if (LIST_CMD.equals(cmd) && args.length == 2) {
+            for (String path: list(new File(args[1]))) {
+                System.out.println(path);
+            }
+        } else if (CAT_CMD.equals(cmd) && args.length == 3) {
+            if (!read(new File(args[1]), args[2], System.out)) {
+                System.err.println("Archive entry not found: " + args[2]);
+                System.exit(1);
+            }
+            System.out.flush();
+        } else {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Packs the given reports directory. The archive is written to a
+     * temporary file which replaces the target archive only on success.
+     *
+     * @param rptsDir the reports directory
+     * @param archive the target archive file
+     * @return the number of files archived
+     * @throws IOException
+     */
+    static int pack(File rptsDir, File archive) throws IOException {
+        Path root = rptsDir.toPath();
+        List<Path> files;
+        Stream<Path> walk = Files.walk(root);
+        try {
+            files = walk.filter(Files::isRegularFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+        } finally {
+            walk.close();
+        }
+        File dir = archive.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(archive.getName(), ".tmp", dir);
+        try {
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+            ZipOutputStream zos = new ZipOutputStream(os);
+            try {
+                zos.setLevel(9);
+                for (Path file: files) {
+                    // Zip entry names are always separated by a slash.
+                    String name = root.relativize(file).toString()
+                            .replace(File.separatorChar, '/');
+                    ZipEntry entry = new ZipEntry(name);
+                    entry.setTime(Files.getLastModifiedTime(file).toMillis());
+                    zos.putNextEntry(entry);
+                    Files.copy(file, zos);
+                    zos.closeEntry();
+                }
+            } finally {
+                zos.close();
+            }
+            Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            // The temporary file only remains if the archive failed.
+            tmp.delete();
+        }
+
+        return files.size();
+    }
+
+    /**
+     * @param archive the archive file
+     * @return the archived file paths
+     * @throws IOException
+     */
+    static List<String> list(File archive) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        try {
+            return Collections.list(zip.entries()).stream()
+                    .map(ZipEntry::getName)
+                    .collect(Collectors.toList());
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Copies the given archived file content to the given stream.
+     *
+     * @param archive the archive file
+     * @param path the file path relative to the reports directory
+     * @param os the output stream
+     * @return whether the file is in the archive
+     * @throws IOException
+     */
+    static boolean read(File archive, String path, OutputStream os) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        try {
+            ZipEntry entry = zip.getEntry(path);
+            if (entry == null) {
+                return false;
+            }
+            InputStream is = zip.getInputStream(entry);
+            try {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = is.read(buf)) != -1) {
+                    os.write(buf, 0, n);
+                }
+            } finally {
+                is.close();
+            }
+            return true;
+        } finally {
+            zip.close();
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+package org.reactome.release.qa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Accumulates the HTML rows of one recipient's report page. The rows
+ * are kept as is up to the rollup threshold. Once the threshold is
+ * exceeded, the rows are instead counted by the rollup column value
+ * and only the top sample rows of each group are kept, so that the
+ * memory used is bounded by the sample size rather than the report
+ * size.
+ *
+ * The sample rows of a group are those with the greatest sort key,
+ * which is the first date column if there is one, otherwise the DB ID.
+ * Ties are broken in favor of the earlier report line.
+ */
+class ReportRollup {
+
+    /**
+     * The rollup command line settings.
+     */
+    static class Options {
+        /** The group-by column header, or null for the class column. */
+        String column;
+        /** The recipient row count above which the rows are rolled up. */
+        int threshold;
+        /** The maximum number of sample rows for each group. */
+        int samples = 10;
+    }
+
+    /**
+     * A report line prepared for a rollup.
+     */
+    static class Row {
+        final String group;
+        final String sortKey;
+        final long ordinal;
+        final String html;
+
+        Row(String group, String sortKey, long ordinal, String html) {
+            this.group = group;
+            this.sortKey = sortKey;
+            this.ordinal = ordinal;
+            this.html = html;
+        }
+    }
+
+    // The row sample ordering, least significant first.
+    private static final Comparator<Row> SAMPLE_ORDER =
+            Comparator.comparing((Row row) -> row.sortKey, ReportRollup::compareKeys)
+                    .thenComparing(Comparator.comparingLong((Row row) -> row.ordinal).reversed());
+
+    private static final String NO_GROUP = "(none)";
+
+    private final Options options;
+
+    private final String groupHeader;
+
+    // The rows held before the threshold is exceeded.
+    private List<Row> rows = new ArrayList<Row>();
+
+    // The {group: count} and {group: sample heap} maps after the
+    // threshold is exceeded.
+    private Map<String, Long> counts;
+    private Map<String, PriorityQueue<Row>> samples;
+
+    private long total;
+
+    /**
+     * @param options the rollup settings
+     * @param groupHeader the group-by column header, or null if the
+     *     report has no group-by column
+     */
+    ReportRollup(Options options, String groupHeader) {
+        this.options = options;
+        this.groupHeader = groupHeader;
+    }
+
+    /**
+     * Resolves the group-by column of the given report.
+     *
+     * @param options the rollup settings
+     * @param schema the report schema
+     * @return the group-by column index, or -1 if none
+     */
+    static int getGroupIndex(Options options, ReportSchema schema) {
+        if (options.column != null) {
+            int ndx = schema.getHeaders().indexOf(options.column);
+            if (ndx != -1) {
+                return ndx;
+            }
+        }
+        int[] classIndexes = schema.getClassIndexes();
+        return classIndexes.length == 0 ? -1 : classIndexes[0];
+    }
+
+    /**
+     * Resolves the sample sort column of the given report.
+     *
+     * @param schema the report schema
+     * @return the sort column index, or -1 if none
+     */
+    static int getSortIndex(ReportSchema schema) {
+        int[] dateIndexes = schema.getDateIndexes();
+        return dateIndexes.length == 0 ? schema.getDbIdIndex() : dateIndexes[0];
+    }
+
+    void add(Row row) {
+        total++;
+        if (counts == null) {
+            rows.add(row);
+            if (rows.size() > options.threshold) {
+                rollUp();
+            }
+        } else {
+            aggregate(row);
+        }
+    }
+
+    boolean isRolledUp() {
+        return counts != null;
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    /**
+     * @param colCnt the report column count
+     * @return the HTML table rows, either every row or, if rolled up,
+     *     the group heading rows each followed by the group samples
+     */
+    List<String> getLines(int colCnt) {
+        if (counts == null) {
+            return rows.stream().map(row -> row.html).collect(Collectors.toList());
+        }
+        List<String> groups = counts.keySet().stream()
+                .sorted(Comparator.comparing((String group) -> counts.get(group)).reversed()
+                        .thenComparing(Comparator.naturalOrder()))
+                .collect(Collectors.toList());
+        List<String> lines = new ArrayList<String>();
+        for (String group: groups) {
+            List<Row> groupSamples = new ArrayList<Row>(samples.get(group));
+            Collections.sort(groupSamples, SAMPLE_ORDER.reversed());
+            StringBuilder sb = new StringBuilder();
+            sb.append("<tr><th colspan=");
+            sb.append(colCnt);
+            sb.append(">");
+            if (groupHeader != null) {
+                sb.append(groupHeader);
+                sb.append(": ");
+            }
+            sb.append(group);
+            sb.append(" - ");
+            sb.append(counts.get(group));
+            sb.append(" issues, ");
+            sb.append(groupSamples.size());
+            sb.append(" shown");
+            sb.append("</th></tr>");
+            lines.add(sb.toString());
+            for (Row row: groupSamples) {
+                lines.add(row.html);
+            }
+        }
+        return lines;
+    }
+
+    private void rollUp() {
+        counts = new HashMap<String, Long>();
+        samples = new HashMap<String, PriorityQueue<Row>>();
+        for (Row row: rows) {
+            aggregate(row);
+        }
+        rows = null;
+    }
+
+    private void aggregate(Row row) {
+        String group = row.group == null || row.group.isEmpty() ? NO_GROUP : row.group;
+        counts.merge(group, 1L, Long::sum);
+        PriorityQueue<Row> heap = samples.get(group);
+        if (heap == null) {
+            heap = new PriorityQueue<Row>(options.samples + 1, SAMPLE_ORDER);
+            samples.put(group, heap);
+        }
+        // The heap head is the least significant sample.
+        if (heap.size() < options.samples) {
+            heap.add(row);
+        } else if (options.samples > 0 && SAMPLE_ORDER.compare(row, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(row);
+        }
+    }
+
+    /**
+     * Compares sort keys. A missing key is least, followed by the
+     * integer keys in numeric order, followed by the other keys in
+     * lexical order. This is a total order even if a sort column has
+     * both integer and other values.
+     */
+    private static int compareKeys(String key1, String key2) {
+        if (key1 == null || key2 == null) {
+            return key1 == null ? (key2 == null ? 0 : -1) : 1;
+        }
+        Long num1 = parseKey(key1);
+        Long num2 = parseKey(key2);
+        if (num1 != null && num2 != null) {
+            return Long.compare(num1, num2);
+        }
+        if (num1 != null || num2 != null) {
+            return num1 != null ? -1 : 1;
+        }
+        return key1.compareTo(key2);
+    }
+
+    private static Long parseKey(String key) {
+        try {
+            return Long.valueOf(key);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
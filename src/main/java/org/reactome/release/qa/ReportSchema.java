@@ -0,0 +1,211 @@
+package org.reactome.release.qa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The column roles of a QA report. The roles are resolved once for
+ * each distinct report header line and cached for reuse across all
+ * reports and report directories processed by this JVM.
+ *
+ * The resolved roles are as follows:
+ * <ul>
+ * <li><em>DB ID</em> - the columns which end in <code>DB_ID</code> or
+ *     <code>DBID</code>. Each DB ID column is rendered as an instance
+ *     browser link. The first <code>DB_ID</code> column, or failing
+ *     that the first <code>DBID</code> column, is the row DB ID.</li>
+ * <li><em>author</em> - the columns which begin with one of the most
+ *     recent modification headers, e.g. <code>MostRecentAuthor_1</code>.</li>
+ * <li><em>date</em> - the columns whose header has the word <code>Date</code>,
+ *     e.g. <code>Date</code>, <code>ModifiedDate</code> or <code>date_1</code>,
+ *     but not <code>Updated</code> or <code>Candidate</code>.</li>
+ * <li><em>class</em> - the columns whose header ends in <code>Class</code>.</li>
+ * </ul>
+ */
+class ReportSchema {
+
+    // The author is in the most recent modification column, which
+    // has variant spellings.
+    private static final String[] AUTHOR_HEADERS = {
+            "Modified",
+            "MostRecentAuthor",
+            "LastAuthor"
+    };
+
+    // The DB ID columns have variant spellings.
+    private static final String[] DB_ID_HEADERS = { "DB_ID", "DBID" };
+
+    // The date word is delimited by the header start or end, an
+    // underscore or, if capitalized, a camel case boundary.
+    private static final Pattern DATE_PAT = Pattern.compile(
+            "(?:^|_)[Dd]ate(?:$|_|[A-Z0-9])|(?<=[a-z0-9])Date(?:$|_|[A-Z0-9])");
+
+    private static final String CLASS_HEADER = "class";
+
+    private static final String NL = System.getProperty("line.separator");
+
+    // The {header line: schema} cache.
+    private static final Map<String, ReportSchema> CACHE =
+            new ConcurrentHashMap<String, ReportSchema>();
+
+    private final List<String> headers;
+
+    private final int dbIdIndex;
+
+    // The DB ID instance browser link flag for each column.
+    private final boolean[] linkFlags;
+
+    private final int[] authorIndexes;
+
+    private final int[] dateIndexes;
+
+    private final int[] classIndexes;
+
+    private ReportSchema(List<String> headers) {
+        this.headers = Collections.unmodifiableList(headers);
+        int size = headers.size();
+        linkFlags = new boolean[size];
+        List<Integer> authors = new ArrayList<Integer>();
+        List<Integer> dates = new ArrayList<Integer>();
+        List<Integer> classes = new ArrayList<Integer>();
+        // The preferred DB ID column index for each DB ID spelling.
+        int[] dbIdCandidates = new int[DB_ID_HEADERS.length];
+        Arrays.fill(dbIdCandidates, -1);
+        for (int i = 0; i < size; i++) {
+            String hdr = headers.get(i);
+            String lcHdr = hdr.toLowerCase();
+            for (int j = 0; j < DB_ID_HEADERS.length; j++) {
+                if (hdr.endsWith(DB_ID_HEADERS[j])) {
+                    linkFlags[i] = true;
+                    if (dbIdCandidates[j] == -1) {
+                        dbIdCandidates[j] = i;
+                    }
+                }
+            }
+            for (String authorHdr: AUTHOR_HEADERS) {
+                if (hdr.startsWith(authorHdr)) {
+                    authors.add(i);
+                    break;
+                }
+            }
+            if (DATE_PAT.matcher(hdr).find()) {
+                dates.add(i);
+            }
+            if (lcHdr.endsWith(CLASS_HEADER)) {
+                classes.add(i);
+            }
+        }
+        int dbIdNdx = -1;
+        for (int candidate: dbIdCandidates) {
+            if (candidate != -1) {
+                dbIdNdx = candidate;
+                break;
+            }
+        }
+        dbIdIndex = dbIdNdx;
+        authorIndexes = toArray(authors);
+        dateIndexes = toArray(dates);
+        classIndexes = toArray(classes);
+    }
+
+    /**
+     * Returns the schema for the given report header line, resolving
+     * the column roles if this header line has not been seen before.
+     *
+     * @param headerLine the report first line
+     * @param delimiter the column delimiter regular expression
+     * @return the report schema
+     */
+    static ReportSchema forHeaderLine(String headerLine, String delimiter) {
+        return CACHE.computeIfAbsent(headerLine,
+                line -> new ReportSchema(Arrays.asList(line.split(delimiter))));
+    }
+
+    List<String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return the row DB ID column index, or -1 if there is no
+     *     DB ID column
+     */
+    int getDbIdIndex() {
+        return dbIdIndex;
+    }
+
+    int[] getDateIndexes() {
+        return dateIndexes;
+    }
+
+    int[] getClassIndexes() {
+        return classIndexes;
+    }
+
+    int[] getAuthorIndexes() {
+        return authorIndexes;
+    }
+
+    /**
+     * Collects the non-empty author column values in the given line.
+     *
+     * @param line the report line
+     * @return the line authors
+     */
+    Set<String> getAuthors(List<String> line) {
+        Set<String> authors = new LinkedHashSet<String>(authorIndexes.length);
+        for (int authorNdx: authorIndexes) {
+            if (authorNdx >= line.size()) {
+                continue;
+            }
+            String author = line.get(authorNdx);
+            if (author != null && !author.isEmpty()) {
+                authors.add(author);
+            }
+        }
+        return authors;
+    }
+
+    /**
+     * Converts the given report line to a HTML table row. Each
+     * DB ID column value is hyperlinked to the instance browser.
+     *
+     * @param line the report line
+     * @param instUrlPrefix the instance browser URL prefix
+     * @return the HTML table row
+     */
+    String renderRow(List<String> line, String instUrlPrefix) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<tr>");
+        for (int i = 0; i < line.size(); i++) {
+            String col = line.get(i);
+            sb.append("<td>");
+            if (i < linkFlags.length && linkFlags[i]) {
+                sb.append("<a href=");
+                sb.append(instUrlPrefix);
+                sb.append(col);
+                sb.append(">");
+                sb.append(col);
+                sb.append("</a>");
+            } else {
+                sb.append(col);
+            }
+            sb.append("</td>");
+        }
+        sb.append("</tr>");
+        sb.append(NL);
+
+        return sb.toString();
+    }
+
+    private static int[] toArray(List<Integer> indexes) {
+        return indexes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+}
@@ -0,0 +1,368 @@
+package org.reactome.release.qa;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Partitions the report files of a reports directory across worker
+ * processes. Each worker renders the curator HTML files of its shard
+ * and writes a partial <code>{recipient: {report: html}}</code>
+ * manifest. The coordinator merges the worker manifests into the
+ * notifications map, and the worker NDJSON exports, if any, into
+ * the reports directory export.
+ *
+ * Workers communicate with the coordinator only through files in the
+ * reports directory <code>.shards</code> subdirectory:
+ * <ul>
+ * <li><code>shard_</code><em>n</em><code>.list</code> - the shard
+ *     report file paths relative to the reports directory</li>
+ * <li><code>shard_</code><em>n</em><code>.manifest</code> - the worker
+ *     recipient, report path and HTML path lines</li>
+ * <li><code>shard_</code><em>n</em><code>.ndjson</code> - the optional
+ *     worker NDJSON export and its index</li>
+ * </ul>
+ * The shard directory is removed when rendering is done, whether or
+ * not the workers are successful.
+ *
+ * A worker can therefore run on any host which shares the reports
+ * directory file system path and has the Notify <code>resources</code>
+ * in the same working directory as the coordinator. A worker on a host
+ * other than <code>localhost</code> is started with <code>ssh</code>.
+ */
+class ShardedNotify {
+
+    static final String SHARD_DIR_NM = ".shards";
+
+    private static final String SHARD_PREFIX = "shard_";
+
+    private static final String LIST_EXT = ".list";
+
+    private static final String MANIFEST_EXT = ".manifest";
+
+    private static final String EXPORT_EXT = ".ndjson";
+
+    private static final String MANIFEST_DELIMITER = "\t";
+
+    private static final String LOCALHOST = "localhost";
+
+    // The coordinator JVM option prefixes which are passed on to the
+    // workers. Other options, e.g. a debug agent, would conflict with
+    // the coordinator.
+    private static final String[] WORKER_JVM_OPTS = { "-Xmx", "-Xms", "-Xss", "-D" };
+
+    // The JMX system property prefix, which is not passed on to the
+    // workers, since a JMX port would conflict with the coordinator.
+    private static final String JMX_PROP_PREFIX = "-Dcom.sun.management.";
+
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Renders the given report files in worker processes.
+     *
+     * @param rptsDir the reports directory
+     * @param rptFiles the report files to render
+     * @param shardCnt the number of workers
+     * @param hosts the worker hosts, assigned round-robin, or empty
+     *     to run every worker on this host
+     * @param workerOpts the Notify options passed to each worker
+     * @param exportFile the merged NDJSON export file, or null if
+     *     there is no export
+     * @return the merged {recipient: {report file: html file}} map
+     * @throws Exception if a worker is unsuccessful
+     */
+    static Map<String, Map<File, File>> render(File rptsDir, List<File> rptFiles,
+            int shardCnt, List<String> hosts, List<String> workerOpts, File exportFile)
+                    throws Exception {
+        File shardDir = new File(rptsDir, SHARD_DIR_NM);
+        if (shardDir.exists()) {
+            delete(shardDir);
+        }
+        List<Process> workers = new ArrayList<Process>(shardCnt);
+        List<File> shardFiles = new ArrayList<File>(shardCnt);
+        Map<String, Map<File, File>> notifications =
+                new HashMap<String, Map<File, File>>();
+        try {
+            shardDir.mkdir();
+            List<List<File>> shards = partition(rptFiles, shardCnt);
+            for (int i = 0; i < shards.size(); i++) {
+                File shardFile = new File(shardDir, SHARD_PREFIX + i + LIST_EXT);
+                writeShard(shardFile, shards.get(i), rptsDir);
+                shardFiles.add(shardFile);
+                String host = hosts.isEmpty() ? LOCALHOST : hosts.get(i % hosts.size());
+                List<String> command = getWorkerCommand(host, shardFile, rptsDir, workerOpts);
+                logger.info("Starting worker " + i + " on " + host + " with " +
+                        shards.get(i).size() + " reports...");
+                Process worker = new ProcessBuilder(command)
+                        .directory(new File(System.getProperty("user.dir")))
+                        .inheritIO()
+                        .start();
+                workers.add(worker);
+            }
+            // Wait for every worker before failing, so that no worker
+            // is left writing to the shard directory.
+            List<Integer> failures = new ArrayList<Integer>();
+            for (int i = 0; i < workers.size(); i++) {
+                int rc = workers.get(i).waitFor();
+                if (rc != 0) {
+                    failures.add(i);
+                }
+            }
+            if (!failures.isEmpty()) {
+                String msg = "Notify workers were not successful: " + failures;
+                throw new IllegalStateException(msg);
+            }
+
+            // Merge the worker results.
+            for (File shardFile: shardFiles) {
+                readManifest(getManifestFile(shardFile), rptsDir, notifications);
+            }
+            if (exportFile != null) {
+                List<File> parts = shardFiles.stream()
+                        .map(ShardedNotify::getExportFile)
+                        .collect(Collectors.toList());
+                NdjsonExport.merge(parts, exportFile);
+            }
+        } finally {
+            // Stop any worker left running by a failure.
+            for (Process worker: workers) {
+                worker.destroy();
+            }
+            delete(shardDir);
+        }
+        logger.info("Merged the results of " + workers.size() + " workers.");
+
+        return notifications;
+    }
+
+    /**
+     * Partitions the given files into at most the given number of
+     * shards of approximately equal total file size. The files are
+     * assigned largest first to the smallest shard.
+     *
+     * @param files the files to partition
+     * @param shardCnt the maximum number of shards
+     * @return the non-empty shards
+     */
+    static List<List<File>> partition(List<File> files, int shardCnt) {
+        List<File> sorted = new ArrayList<File>(files);
+        Collections.sort(sorted, Comparator.comparingLong(File::length).reversed());
+        int cnt = Math.max(1, Math.min(shardCnt, sorted.size()));
+        List<List<File>> shards = new ArrayList<List<File>>(cnt);
+        long[] sizes = new long[cnt];
+        for (int i = 0; i < cnt; i++) {
+            shards.add(new ArrayList<File>());
+        }
+        for (File file: sorted) {
+            int smallest = 0;
+            for (int i = 1; i < cnt; i++) {
+                if (sizes[i] < sizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            shards.get(smallest).add(file);
+            sizes[smallest] += file.length();
+        }
+        return shards.stream()
+                .filter(shard -> !shard.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Reads the report files listed in the given shard file.
+     *
+     * @param shardFile the shard list file
+     * @param rptsDir the reports directory
+     * @return the shard report files
+     * @throws IOException
+     */
+    static List<File> readShard(File shardFile, File rptsDir) throws IOException {
+        List<File> files = new ArrayList<File>();
+        BufferedReader br = new BufferedReader(new FileReader(shardFile));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    files.add(new File(rptsDir, line));
+                }
+            }
+        } finally {
+            br.close();
+        }
+        return files;
+    }
+
+    /**
+     * Writes the worker {recipient: {report file: html file}} map.
+     *
+     * @param manifestFile the manifest file
+     * @param notifications the worker notifications
+     * @param rptsDir the reports directory
+     * @throws IOException
+     */
+    static void writeManifest(File manifestFile, Map<String, Map<File, File>> notifications,
+            File rptsDir) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(manifestFile));
+        try {
+            for (Entry<String, Map<File, File>> ntf: notifications.entrySet()) {
+                for (Entry<File, File> entry: ntf.getValue().entrySet()) {
+                    bw.write(ntf.getKey());
+                    bw.write(MANIFEST_DELIMITER);
+                    bw.write(toRelativePath(entry.getKey(), rptsDir));
+                    bw.write(MANIFEST_DELIMITER);
+                    bw.write(toRelativePath(entry.getValue(), rptsDir));
+                    bw.newLine();
+                }
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    static File getManifestFile(File shardFile) {
+        return replaceExtension(shardFile, MANIFEST_EXT);
+    }
+
+    static File getExportFile(File shardFile) {
+        return replaceExtension(shardFile, EXPORT_EXT);
+    }
+
+    private static void readManifest(File manifestFile, File rptsDir,
+            Map<String, Map<File, File>> notifications) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(manifestFile));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split(MANIFEST_DELIMITER);
+                if (fields.length < 3) {
+                    continue;
+                }
+                Map<File, File> curatorNtfs = notifications.get(fields[0]);
+                if (curatorNtfs == null) {
+                    curatorNtfs = new HashMap<File, File>();
+                    notifications.put(fields[0], curatorNtfs);
+                }
+                curatorNtfs.put(new File(rptsDir, fields[1]), new File(rptsDir, fields[2]));
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    private static void writeShard(File shardFile, List<File> files, File rptsDir)
+            throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(shardFile));
+        try {
+            for (File file: files) {
+                bw.write(toRelativePath(file, rptsDir));
+                bw.newLine();
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    private static List<String> getWorkerCommand(String host, File shardFile, File rptsDir,
+            List<String> workerOpts) {
+        // The worker JVM has the same class path as this JVM, and the
+        // same heap and system property options, e.g. -Xmx and the log
+        // configuration.
+        String javaCmd = System.getProperty("java.home") + File.separator +
+                "bin" + File.separator + "java";
+        String classPath = Stream.of(System.getProperty("java.class.path")
+                .split(File.pathSeparator))
+                .map(path -> new File(path).getAbsolutePath())
+                .collect(Collectors.joining(File.pathSeparator));
+        List<String> command = new ArrayList<String>();
+        command.add(javaCmd);
+        for (String arg: ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (isWorkerJvmOption(arg)) {
+                command.add(arg);
+            }
+        }
+        command.add("-cp");
+        command.add(classPath);
+        command.add(Notify.class.getName());
+        command.addAll(workerOpts);
+        command.add(Notify.SHARD_OPT);
+        command.add(shardFile.getAbsolutePath());
+        command.add(rptsDir.getAbsolutePath());
+        if (LOCALHOST.equals(host)) {
+            return command;
+        }
+        // A remote worker runs in the same directory on that host.
+        StringBuilder sb = new StringBuilder();
+        sb.append("cd ");
+        sb.append(quote(System.getProperty("user.dir")));
+        sb.append(" &&");
+        for (String arg: command) {
+            sb.append(' ');
+            sb.append(quote(arg));
+        }
+        List<String> remote = new ArrayList<String>();
+        remote.add("ssh");
+        remote.add(host);
+        remote.add(sb.toString());
+        return remote;
+    }
+
+    /**
+     * @param arg the coordinator JVM input argument
+     * @return whether the argument is passed on to the workers
+     */
+    static boolean isWorkerJvmOption(String arg) {
+        if (arg.startsWith(JMX_PROP_PREFIX)) {
+            return false;
+        }
+        for (String prefix: WORKER_JVM_OPTS) {
+            if (arg.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String quote(String arg) {
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+
+    private static String toRelativePath(File file, File rptsDir) {
+        return rptsDir.getAbsoluteFile().toPath()
+                .relativize(file.getAbsoluteFile().toPath())
+                .toString();
+    }
+
+    private static File replaceExtension(File file, String ext) {
+        String name = file.getName();
+        int extNdx = name.lastIndexOf('.');
+        String base = extNdx == -1 ? name : name.substring(0, extNdx);
+        return new File(file.getParentFile(), base + ext);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
@@ -0,0 +1,266 @@
+package org.reactome.release.qa;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.reactome.release.qa.Notify.QAReport;
+
+/**
+ * Resolves the display name and most recent author of report lines
+ * from the slice database. A report line without an author is
+ * otherwise only sent to the coordinators.
+ *
+ * The DB IDs of the lines to resolve are collected from the whole
+ * report and queried in chunks of {@link #CHUNK_SIZE} with one
+ * <code>IN (...)</code> query per chunk. The results are cached for
+ * the life of this enricher, so each DB ID is queried at most once
+ * per run.
+ *
+ * The most recent author is the display name of the last
+ * <code>modified</code> InstanceEdit, or the <code>created</code>
+ * InstanceEdit if the instance was never modified. The InstanceEdit
+ * display name has the same <em>last, initial, date</em> form as the
+ * QA report author columns.
+ */
+class SliceEnricher implements Closeable {
+
+    /** The maximum number of DB IDs in one query. */
+    static final int CHUNK_SIZE = 1000;
+
+    /** The appended author column header. */
+    static final String AUTHOR_HEADER = "MostRecentAuthor";
+
+    /** The appended display name column header. */
+    static final String DISPLAY_NAME_HEADER = "DisplayName";
+
+    private static final String DELIMITER = "\t";
+
+    private static final String QUERY_PREFIX =
+            "SELECT d.DB_ID, d._displayName, ie._displayName" +
+            " FROM DatabaseObject d" +
+            " LEFT JOIN DatabaseObject_2_modified m ON m.DB_ID = d.DB_ID" +
+            " AND m.modified_rank =" +
+            " (SELECT MAX(m2.modified_rank) FROM DatabaseObject_2_modified m2" +
+            " WHERE m2.DB_ID = d.DB_ID)" +
+            " LEFT JOIN DatabaseObject ie ON ie.DB_ID = COALESCE(m.modified, d.created)" +
+            " WHERE d.DB_ID IN (";
+
+    private static final String[] NONE = { null, null };
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final Connection connection;
+
+    // The {DB ID: [display name, author]} cache.
+    private final Map<Long, String[]> cache = new ConcurrentHashMap<Long, String[]>();
+
+    SliceEnricher(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Connects to the given slice database. The connection properties
+     * are <code>dbHost</code> (default <code>localhost</code>),
+     * <code>dbPort</code> (default 3306), <code>dbUser</code> and
+     * <code>dbPwd</code>.
+     *
+     * @param file the database properties file
+     * @param dbName the slice database name
+     * @return the enricher
+     * @throws IOException if the properties file cannot be read
+     * @throws SQLException if the database cannot be connected
+     */
+    static SliceEnricher connect(File file, String dbName) throws IOException, SQLException {
+        if (!file.exists()) {
+            String msg = "The database configuration file was not found: " + file;
+            throw new FileNotFoundException(msg);
+        }
+        Properties props = new Properties();
+        InputStream is = new FileInputStream(file);
+        try {
+            props.load(is);
+        } finally {
+            is.close();
+        }
+        String host = props.getProperty("dbHost", "localhost");
+        String port = props.getProperty("dbPort", "3306");
+        String url = "jdbc:mysql://" + host + ":" + port + "/" + dbName;
+        Connection connection = DriverManager.getConnection(url,
+                props.getProperty("dbUser"), props.getProperty("dbPwd"));
+        return new SliceEnricher(connection);
+    }
+
+    /**
+     * Adds the resolved display name and author to the given report.
+     * The display name column is appended if the report does not
+     * have one. The author of a line without an author is filled in
+     * to the first report author column, which is appended if the
+     * report does not have one.
+     *
+     * @param report the QA report
+     * @return the enriched report, or the given report if there is
+     *     nothing to resolve
+     * @throws SQLException
+     */
+    QAReport enrich(QAReport report) throws SQLException {
+        ReportSchema schema = report.schema;
+        int dbIdNdx = schema.getDbIdIndex();
+        if (dbIdNdx == -1 || report.lines.isEmpty()) {
+            return report;
+        }
+        boolean isDisplayNameMissing = !hasDisplayName(schema.getHeaders());
+        // The lines without an author.
+        Set<List<String>> unauthored = Collections.newSetFromMap(
+                new IdentityHashMap<List<String>, Boolean>());
+        for (List<String> line: report.lines) {
+            if (schema.getAuthors(line).isEmpty()) {
+                unauthored.add(line);
+            }
+        }
+        if (!isDisplayNameMissing && unauthored.isEmpty()) {
+            return report;
+        }
+
+        // Resolve the DB IDs in bulk.
+        Set<Long> dbIds = new LinkedHashSet<Long>();
+        for (List<String> line: report.lines) {
+            if (isDisplayNameMissing || unauthored.contains(line)) {
+                Long dbId = parseDbId(line, dbIdNdx);
+                if (dbId != null) {
+                    dbIds.add(dbId);
+                }
+            }
+        }
+        resolve(dbIds);
+
+        // Add the resolved columns.
+        List<String> headers = new ArrayList<String>(schema.getHeaders());
+        if (isDisplayNameMissing) {
+            headers.add(DISPLAY_NAME_HEADER);
+        }
+        // Fill in an existing author column rather than adding a
+        // duplicate header.
+        int[] authorIndexes = schema.getAuthorIndexes();
+        int authorNdx = authorIndexes.length == 0 ? -1 : authorIndexes[0];
+        boolean isAuthorAppended = authorNdx == -1 && !unauthored.isEmpty();
+        if (isAuthorAppended) {
+            headers.add(AUTHOR_HEADER);
+        }
+        List<List<String>> lines = new ArrayList<List<String>>(report.lines.size());
+        for (List<String> line: report.lines) {
+            List<String> enriched = new ArrayList<String>(headers.size());
+            enriched.addAll(line);
+            // Pad short lines so that the appended columns line up.
+            while (enriched.size() < schema.getHeaders().size()) {
+                enriched.add("");
+            }
+            Long dbId = parseDbId(line, dbIdNdx);
+            String[] resolved = dbId == null ? NONE : cache.getOrDefault(dbId, NONE);
+            if (isDisplayNameMissing) {
+                enriched.add(resolved[0] == null ? "" : resolved[0]);
+            }
+            boolean isUnauthored = unauthored.contains(line);
+            if (isAuthorAppended) {
+                enriched.add(isUnauthored && resolved[1] != null ? resolved[1] : "");
+            } else if (isUnauthored && resolved[1] != null) {
+                enriched.set(authorNdx, resolved[1]);
+            }
+            lines.add(enriched);
+        }
+        String headerLine = String.join(DELIMITER, headers);
+        ReportSchema enrichedSchema = ReportSchema.forHeaderLine(headerLine, DELIMITER);
+
+        return new QAReport(enrichedSchema, lines);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Queries the uncached DB IDs in chunks.
+     *
+     * @param dbIds the DB IDs to resolve
+     * @throws SQLException
+     */
+    private void resolve(Set<Long> dbIds) throws SQLException {
+        List<Long> uncached = dbIds.stream()
+                .filter(dbId -> !cache.containsKey(dbId))
+                .collect(Collectors.toList());
+        for (int start = 0; start < uncached.size(); start += CHUNK_SIZE) {
+            int end = Math.min(start + CHUNK_SIZE, uncached.size());
+            List<Long> chunk = uncached.subList(start, end);
+            String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            String sql = QUERY_PREFIX + placeholders + ")";
+            PreparedStatement stmt = connection.prepareStatement(sql);
+            try {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setLong(i + 1, chunk.get(i));
+                }
+                ResultSet rs = stmt.executeQuery();
+                try {
+                    while (rs.next()) {
+                        String[] resolved = { rs.getString(2), rs.getString(3) };
+                        cache.put(rs.getLong(1), resolved);
+                    }
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                stmt.close();
+            }
+            // Cache the DB IDs not found as well.
+            for (Long dbId: chunk) {
+                cache.putIfAbsent(dbId, NONE);
+            }
+        }
+        if (!uncached.isEmpty()) {
+            logger.debug("Resolved " + uncached.size() + " DB IDs from the slice database.");
+        }
+    }
+
+    private static boolean hasDisplayName(List<String> headers) {
+        return headers.stream()
+                .map(String::toLowerCase)
+                .anyMatch(hdr -> hdr.endsWith("displayname"));
+    }
+
+    private static Long parseDbId(List<String> line, int dbIdNdx) {
+        if (dbIdNdx >= line.size()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(line.get(dbIdNdx).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
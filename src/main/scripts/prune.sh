@@ -2,7 +2,9 @@
 #
 # Prunes all but the n most recent slice databases
 # and reports, where n is the optional command argument
-# (default 4).
+# (default 4). The pruned reports are archived in the
+# reports archive subdirectory, e.g. archive/20180912.zip,
+# unless the delete option is set.
 #
 
 # See qa-check-weekly.sh for an explanation of the idiom below.
@@ -17,11 +19,12 @@ qa_check_root=`dirname $bin_dir`
 
 # Displays the help message.
 usage() {
-    echo "Usage: $0 [-h|--help] [-d|--dry-run] [-n count] [--] [reports_dir]"
+    echo "Usage: $0 [-h|--help] [-d|--dry-run] [-D|--delete] [-n count] [--] [reports_dir]"
 }
 
 HELP=false     # Display help.
 DRY_RUN=false  # Display subcommands rather than running them.
+DELETE=false   # Delete the pruned reports without archiving them.
 ECHO=""        # Precede subcommands with echo if and only if dry run is set.
 n=4            # The number of slices to prune.
 
@@ -30,6 +33,7 @@ while true; do
     case "$1" in
         -h | --help )    HELP=true; shift ;;
         -d | --dry-run ) DRY_RUN=true; shift ;;
+        -D | --delete )  DELETE=true; shift ;;
         -n ) n="$2"; shift; shift ;;
         -- ) shift; break ;;
         * ) break ;;
@@ -63,6 +67,15 @@ if [ ! -e $reports_dir ]; then
     exit 1
 fi
 
+# The archived reports location.
+archive_dir="$reports_dir/archive"
+# The archiver is in the Notify jar.
+notify_jar="$qa_check_root/lib/Notify-jar-with-dependencies.jar"
+if ! $DELETE && [ ! -e $notify_jar ]; then
+    (>&2 echo "Notify jar file not found: $notify_jar")
+    exit 1
+fi
+
 # The Slicing Tool location.
 slicing_dir="$qa_check_root/SlicingTool"
 # The Slicing Tool configuration file.
@@ -78,7 +91,7 @@ fi
 # Note: It is simpler to use the Linux head -n -2 command below.
 # However, that it is not supported on BSD-based OSes, e.g. Mac OS.
 # The following code is compatible with both Linux and Mac OS.
-dates_cnt=`(cd $reports_dir; ls -d * | wc -w)`
+dates_cnt=`(cd $reports_dir; ls -d * | grep -E '^[[:digit:]]{8}$' | wc -w)`
 # If nothing to prune, then we are done.
 if (( $dates_cnt <= $n )); then
     echo "No report slice subdirectories found to prune."
@@ -87,7 +100,7 @@ fi
 # The number of reports and dbs to prune.
 prune_cnt=$(( $dates_cnt - $n ))
 # The dates to prune.
-dates=`ls $reports_dir | grep -E '[[:digit:]]{8}' | head -n $prune_cnt`
+dates=`ls $reports_dir | grep -E '^[[:digit:]]{8}$' | head -n $prune_cnt`
 
 # Extract the db user and password from the property file.
 # The sed command prints the the dbUser or dbPwd property
@@ -97,7 +110,7 @@ db_pswd=`sed -nE "s/^dbPwd[ ]*=[ ]*(.*)/\1/p" $slicing_prop_file`
 
 # For each date in the pruning list,
 # delete the corresponding slice database
-# and the reports subdirectory.
+# and archive and delete the reports subdirectory.
 for prune_date in $dates; do
     prune_db="test_slice_$prune_date"
     echo "Dropping database $prune_db..."
@@ -105,6 +118,18 @@ for prune_date in $dates; do
     $ECHO mysql -u"$db_user" -p"$db_pswd" -e "$drop_cmd" 2>&1 | \
       grep -v "\[Warning\] Using a password"
     rpt_subdir="$reports_dir/$prune_date"
+    if ! $DELETE; then
+        archive="$archive_dir/$prune_date.zip"
+        echo "Archiving report directory $rpt_subdir in $archive..."
+        [ -e "$archive_dir" ] || $ECHO mkdir -p $archive_dir
+        $ECHO java -cp $notify_jar org.reactome.release.qa.ReportArchive pack $rpt_subdir $archive
+        rc=$?
+        if [ "${rc}" -ne 0 ]; then
+            # Keep the reports if they could not be archived.
+            (>&2 echo "Archiving was not successful: $rpt_subdir")
+            exit ${rc}
+        fi
+    fi
     echo "Deleting report directory $rpt_subdir..."
     $ECHO rm -r $rpt_subdir
 done
@@ -2,6 +2,12 @@
 #
 # Runs the weekly QA checks.
 #
+# The completed stages are recorded in the .stages journal of the
+# dated reports directory. A rerun resumes from the first stage which
+# is either not recorded or whose outputs have changed since it was
+# recorded. The restart option discards the journal and reruns every
+# stage.
+#
 
 # This script is assumed to reside in the bin subdirectory
 # of the QA check location. BASH_SOURCE[0] followed by readlink
@@ -29,11 +35,12 @@ esac
 
 # Displays the help message.
 usage() {
-    echo "Usage: $0 [-h|--help] [-d|--dry-run] [--] [DATE]"
+    echo "Usage: $0 [-h|--help] [-d|--dry-run] [-r|--restart] [--] [DATE]"
 }
 
 HELP=false     # Display help.
 DRY_RUN=false  # Display subcommands rather than running them.
+RESTART=false  # Rerun every stage rather than resuming.
 CLEAN=false    # Delete the created report directory if dry run is set.
 ECHO=""        # Precede subcommands with echo if and only if dry run is set.
 
@@ -42,6 +49,7 @@ while true; do
     case "$1" in
         -h | --help )    HELP=true; shift ;;
         -d | --dry-run ) DRY_RUN=true; shift ;;
+        -r | --restart ) RESTART=true; shift ;;
         -- ) shift; break ;;
         * ) break ;;
     esac
@@ -85,20 +93,98 @@ date_hyphenated=`date $date_opts "+%Y-%m-%d"`
 # The QA report location.
 reports_dir=$qa_check_root/QAReports
 current_rpt_dir="$reports_dir/$date"
-# Create the reports directory, if necessary.
+# The slice database name.
+slice_db="test_slice_$date"
+
+## Stage journal ##
+
+# The completed stage journal. Each line is the stage name, the
+# completion time and the stage output checksum, separated by tabs.
+journal="$current_rpt_dir/.stages"
+# Resume from the journal until the first stage which must be run.
+RESUME=true
+# The stages skipped so far, separated by spaces.
+skipped_stages=" "
+
+# Prints the stage output file paths relative to the reports directory.
+stage_outputs() {
+    [ -e "$current_rpt_dir" ] || return 0
+    (
+        cd "$current_rpt_dir"
+        case "$1" in
+            curator ) find CuratorQA -name '*.tsv' ! -name '*_diff.tsv' ;;
+            release ) find ReleaseQA -name '*.tsv' ! -name '*_diff.tsv' ;;
+            diff )    find . -name '*_diff.tsv' ;;
+            notify )  ls summary.html notifications.ndjson ;;
+        esac 2>/dev/null | sort
+    )
+}
+
+# Prints the checksum of the stage outputs. The slice database
+# is not checked, only its name.
+stage_checksum() {
+    if [ "$1" == "slice" ]; then
+        echo "$slice_db"
+    else
+        for file in `stage_outputs $1`; do
+            echo "$file"
+            cat "$current_rpt_dir/$file"
+        done
+    fi | cksum | awk '{print $1 ":" $2}'
+}
+
+# Returns whether the stage should run. A stage is skipped if it is
+# recorded in the journal with the current output checksum. Once a
+# stage runs, every subsequent stage runs as well, and the journal
+# entries other than those of the skipped stages are discarded.
+run_stage() {
+    if $RESUME && [ -e "$journal" ]; then
+        recorded=`awk -F'\t' -v stage="$1" '$1 == stage {print $3}' "$journal"`
+        if [ -n "$recorded" ] && [ "$recorded" == "`stage_checksum $1`" ]; then
+            echo "Skipping the $1 stage, which was completed in a previous run."
+            skipped_stages="$skipped_stages$1 "
+            return 1
+        fi
+        if ! $DRY_RUN; then
+            awk -F'\t' -v keep="$skipped_stages" 'index(keep, " " $1 " ")' "$journal" > "$journal.tmp"
+            mv "$journal.tmp" "$journal"
+        fi
+    fi
+    RESUME=false
+    return 0
+}
+
+# Records the completed stage in the journal.
+complete_stage() {
+    if ! $DRY_RUN; then
+        if [ ! -e "$current_rpt_dir" ]; then
+            mkdir -p "$current_rpt_dir"
+            echo "Created the reports directory: $current_rpt_dir."
+        fi
+        printf "%s\t%s\t%s\n" "$1" "`date '+%Y-%m-%dT%H:%M:%S'`" "`stage_checksum $1`" >> "$journal"
+    fi
+}
+
+# A reports directory without a journal was created before the stage
+# journal was introduced. Its slice database is assumed to exist.
+PRE_JOURNAL=false
+# The reports directory is created when the first stage completes,
+# so that a failed slice is rerun.
 if [ -e "$current_rpt_dir" ]; then
-    # If this is a rerun, then clear the existing report directory.
-    if [  -n "date_arg" ] && ! $DRY_RUN; then
-        rm -rf "$current_rpt_dir"/*
+    if [ -e "$journal" ] && ! $RESTART; then
+        echo "Resuming the run recorded in $journal."
+    else
+        if [ ! -e "$journal" ] && ! $RESTART; then
+            PRE_JOURNAL=true
+        fi
+        # If this is a rerun, then clear the existing report directory.
+        if ! $DRY_RUN; then
+            rm -rf "$current_rpt_dir"/* "$journal"
+        fi
     fi
 else
-    if [ -n "$date_arg" ]; then
-        mkdir "$current_rpt_dir"
-        echo "Created the reports directory: $current_rpt_dir."
-    fi
-    # If dry run, then the target location is either
-    # created here or later. In either case, delete
-    # the directory afterwords.
+    # If dry run, then the target location is created
+    # later. In that case, delete the directory afterwords.
     if $DRY_RUN; then
         CLEAN=true
     fi
@@ -112,14 +198,14 @@ echo "Starting the $date_hyphenated weekly QA checks..."
 slicing_dir="$qa_check_root/SlicingTool"
 # The Slicing Tool jar file.
 slicing_jar="$qa_check_root/lib/SlicingTool-jar-with-dependencies.jar"
-# The slice database name.
-slice_db="test_slice_$date"
-
-# It is assumed that there is an existing slice database
-# if and only if the reports subdirectory exists for the date.
-if [ -e "$current_rpt_dir" ]; then
-    echo "Skipping slicing, since the reports directory already exists: $current_rpt_dir."
+# The slice database exists if the slice stage is recorded in the
+# journal or if the reports directory predates the journal.
+if ! run_stage slice; then
+    echo "The slicing database is assumed to exist: $slice_db."
+elif $PRE_JOURNAL; then
+    echo "Skipping slicing, since the reports directory predates the stage journal: $current_rpt_dir."
     echo "The slicing database is therefore assumed to exist: $slice_db."
+    complete_stage slice
 else
     slicing_opts="--slicingDbName $slice_db"
     echo "Running the slicing tool..."
@@ -135,6 +221,7 @@ else
         exit ${rc}
     fi
     echo "Slicing database created: $slice_db."
+    complete_stage slice
 fi
 
 # The db command line option overrides the config file in
@@ -144,125 +231,160 @@ db_opt="--dbName $slice_db"
 
 ## Curator QA ##
 
-# The CuratorQA location.
-curator_qa_dir="$qa_check_root/CuratorQA"
-if [ ! -e "$curator_qa_dir" ]; then
-    (>&2 echo "The CuratorQA directory was not found: $curator_qa_dir")
-    exit 1
-fi
-# The Curator QA jar file.
-curator_qa_jar="$qa_check_root/lib/CuratorQA-jar-with-dependencies.jar"
-# The Curator QA output area.
-curator_qa_out_dir="$curator_qa_dir/QA_Output"
-[ -e "$curator_qa_out_dir" ] || mkdir $curator_qa_out_dir
-if ! $DRY_RUN; then
-    [ -n "$(ls -A $curator_qa_out_dir)" ] && rm -f $curator_qa_out_dir/*
-fi
+if run_stage curator; then
+    # The CuratorQA location.
+    curator_qa_dir="$qa_check_root/CuratorQA"
+    if [ ! -e "$curator_qa_dir" ]; then
+        (>&2 echo "The CuratorQA directory was not found: $curator_qa_dir")
+        exit 1
+    fi
+    # The Curator QA jar file.
+    curator_qa_jar="$qa_check_root/lib/CuratorQA-jar-with-dependencies.jar"
+    # The Curator QA output area.
+    curator_qa_out_dir="$curator_qa_dir/QA_Output"
+    [ -e "$curator_qa_out_dir" ] || mkdir $curator_qa_out_dir
+    if ! $DRY_RUN; then
+        [ -n "$(ls -A $curator_qa_out_dir)" ] && rm -f $curator_qa_out_dir/*
+    fi
 
-# Run the Curator QA checks against the slice database.
-echo "Running the Curator QA checks..."
-(cd $curator_qa_dir; $ECHO java -Xmx8G -jar $curator_qa_jar $db_opt)
+    # Run the Curator QA checks against the slice database.
+    echo "Running the Curator QA checks..."
+    (cd $curator_qa_dir; $ECHO java -Xmx8G -jar $curator_qa_jar $db_opt)
+    rc=$?
+    if [ "${rc}" -ne 0 ]; then
+        (>&2 echo "Curator QA execution was not successful")
+        exit ${rc}
+    fi
 
-# Copy the output to the reports area.
-curator_qa_rpt_dir="$current_rpt_dir/CuratorQA"
-[ -e "$curator_qa_rpt_dir" ] || mkdir -p $curator_qa_rpt_dir
-if ! $DRY_RUN; then
-    [ -n "$(ls -A $curator_qa_rpt_dir)" ] && rm -f $curator_qa_rpt_dir/*
-    [ -n "$(ls -A $curator_qa_out_dir)" ] && cp -f $curator_qa_out_dir/* $curator_qa_rpt_dir
+    # Copy the output to the reports area.
+    curator_qa_rpt_dir="$current_rpt_dir/CuratorQA"
+    [ -e "$curator_qa_rpt_dir" ] || mkdir -p $curator_qa_rpt_dir
+    if ! $DRY_RUN; then
+        [ -n "$(ls -A $curator_qa_rpt_dir)" ] && rm -f $curator_qa_rpt_dir/*
+        [ -n "$(ls -A $curator_qa_out_dir)" ] && cp -f $curator_qa_out_dir/* $curator_qa_rpt_dir
+    fi
+    echo "The Curator QA reports are in $curator_qa_rpt_dir."
+    complete_stage curator
 fi
-echo "The Curator QA reports are in $curator_qa_rpt_dir."
 
 
 ## Release QA ##
 
-# The Release QA location.
-rls_qa_dir="$qa_check_root/ReleaseQA"
-if [ ! -e "$rls_qa_dir" ]; then
-    (>&2 echo "The Release QA directory was not found: $rls_qa_dir")
-    exit 1
-fi
-# The Release QA output directory.
-rls_qa_out_dir="$rls_qa_dir/output"
-[ -e "$rls_qa_out_dir" ] || mkdir -p $rls_qa_out_dir
-if ! $DRY_RUN; then
-    [ -n "$(ls -A $rls_qa_out_dir)" ] && rm -f $rls_qa_out_dir/*
-fi
+if run_stage release; then
+    # The Release QA location.
+    rls_qa_dir="$qa_check_root/ReleaseQA"
+    if [ ! -e "$rls_qa_dir" ]; then
+        (>&2 echo "The Release QA directory was not found: $rls_qa_dir")
+        exit 1
+    fi
+    # The Release QA output directory.
+    rls_qa_out_dir="$rls_qa_dir/output"
+    [ -e "$rls_qa_out_dir" ] || mkdir -p $rls_qa_out_dir
+    if ! $DRY_RUN; then
+        [ -n "$(ls -A $rls_qa_out_dir)" ] && rm -f $rls_qa_out_dir/*
+    fi
 
-# Run the Release QA.
-rls_qa_jar="$qa_check_root/lib/ReleaseQA-jar-with-dependencies.jar"
-echo "Running the Release QA checks..."
-(cd $rls_qa_dir; $ECHO java -Xmx8G -jar $rls_qa_jar $db_opt)
-rc=$?
-if [ "${rc}" -ne 0 ]; then
-    (>&2 echo "Release QA execution was not successful")
-    exit ${rc}
-fi
+    # Run the Release QA.
+    rls_qa_jar="$qa_check_root/lib/ReleaseQA-jar-with-dependencies.jar"
+    echo "Running the Release QA checks..."
+    (cd $rls_qa_dir; $ECHO java -Xmx8G -jar $rls_qa_jar $db_opt)
+    rc=$?
+    if [ "${rc}" -ne 0 ]; then
+        (>&2 echo "Release QA execution was not successful")
+        exit ${rc}
+    fi
 
-# Copy the output to the reports area.
-rls_qa_rpt_dir="$current_rpt_dir/ReleaseQA"
-[ -e "$rls_qa_rpt_dir" ] || mkdir -p $rls_qa_rpt_dir
-if ! $DRY_RUN; then
-    [ -n "$(ls -A $rls_qa_rpt_dir)" ] && rm -f $rls_qa_rpt_dir/*
-    [ -n "$(ls -A $rls_qa_out_dir)" ] && cp -f $rls_qa_out_dir/* $rls_qa_rpt_dir
-fi
+    # Copy the output to the reports area.
+    rls_qa_rpt_dir="$current_rpt_dir/ReleaseQA"
+    [ -e "$rls_qa_rpt_dir" ] || mkdir -p $rls_qa_rpt_dir
+    if ! $DRY_RUN; then
+        [ -n "$(ls -A $rls_qa_rpt_dir)" ] && rm -f $rls_qa_rpt_dir/*
+        [ -n "$(ls -A $rls_qa_out_dir)" ] && cp -f $rls_qa_out_dir/* $rls_qa_rpt_dir
+    fi
 
-echo "The Release QA reports are in $rls_qa_out_dir."
+    echo "The Release QA reports are in $rls_qa_out_dir."
+    complete_stage release
+fi
 
 
 ## Difference ##
 
-# Find the diffs.
-dates=`(cd $reports_dir; ls -d * | grep -E '[[:digit:]]{8}' | sort -r | head -n 2)`
-if (( `echo $dates | wc -w` == 2 )); then
-    echo "Taking the difference between the `echo $dates | sed 's/ / and /'` reports..."
-    (cd $reports_dir; $ECHO $bin_dir/diff.sh $dates)
-    rc=$?
-    if [ "${rc}" -ne 0 ]; then
-        (>&2 echo "Diff was not successful")
-        # This is not fatal; a warning suffices.
+if run_stage diff; then
+    diff_failed=false
+    # Find the diffs.
+    dates=`(cd $reports_dir; ls -d * | grep -E '[[:digit:]]{8}' | sort -r | head -n 2)`
+    if (( `echo $dates | wc -w` == 2 )); then
+        echo "Taking the difference between the `echo $dates | sed 's/ / and /'` reports..."
+        (cd $reports_dir; $ECHO $bin_dir/diff.sh $dates)
+        rc=$?
+        if [ "${rc}" -ne 0 ]; then
+            (>&2 echo "Diff was not successful")
+            # This is not fatal; a warning suffices. However, the diff
+            # is not recorded as completed, so a rerun repeats it.
+            diff_failed=true
+        fi
+    fi
+    if ! $diff_failed; then
+        complete_stage diff
     fi
 fi
 
 ## Notification ##
 
-# The Notify location.
-notify_dir="$qa_check_root/Notify"
-if [ ! -e "$notify_dir" ]; then
-    (>&2 echo "The Notify directory was not found: $notify_dir")
-    exit 1
-fi
+if run_stage notify; then
+    # The Notify location.
+    notify_dir="$qa_check_root/Notify"
+    if [ ! -e "$notify_dir" ]; then
+        (>&2 echo "The Notify directory was not found: $notify_dir")
+        exit 1
+    fi
 
-# Run the notifier.
-notify_jar="$qa_check_root/lib/Notify-jar-with-dependencies.jar"
-# For some reason, the log config is not picked up in the
-# notifier. Work around this by specifying it in an option.
-notify_log_cfg="$notify_dir/resources/log4j2.properties"
-java_opts="-Dlog4j.configurationFile=$notify_log_cfg"
-echo "Running the notifier..."
-(cd $notify_dir; $ECHO java $java_opts -jar $notify_jar $current_rpt_dir)
-rc=$?
-if [ "${rc}" -ne 0 ]; then
-    (>&2 echo "Notification was not successful")
-    exit ${rc}
+    # Run the notifier.
+    notify_jar="$qa_check_root/lib/Notify-jar-with-dependencies.jar"
+    # For some reason, the log config is not picked up in the
+    # notifier. Work around this by specifying it in an option.
+    notify_log_cfg="$notify_dir/resources/log4j2.properties"
+    java_opts="-Dlog4j.configurationFile=$notify_log_cfg"
+    # Also export the report lines for downstream dashboards, and
+    # notify Blocker issues before rendering the other reports.
+    notify_opts="--ndjson --blockers-first"
+    # Resolve missing report authors from the slice database
+    # if the database connection is configured.
+    if [ -e "$notify_dir/resources/database.properties" ]; then
+        notify_opts="$notify_opts --enrich"
+    fi
+    echo "Running the notifier..."
+    (cd $notify_dir; $ECHO java $java_opts -jar $notify_jar $notify_opts $current_rpt_dir)
+    rc=$?
+    if [ "${rc}" -ne 0 ]; then
+        (>&2 echo "Notification was not successful")
+        exit ${rc}
+    fi
+    complete_stage notify
 fi
 
-# Prune all but the current and previous databases and reports.
-echo "Pruning obsolete databases and reports..."
-prune="$bin_dir/prune.sh"
-if [ ! -e $prune ]; then
-    (>&2 echo "Prune script was not found: $prune")
-    exit 1
-fi
-if $DRY_RUN; then
-    prune_args='--dry-run'
-else
-    prune_args=""
-fi
-eval "$prune $prune_args"
-rc=$?
-if [ "${rc}" -ne 0 ]; then
-    (>&2 echo "Pruning was not successful")
-    exit ${rc}
+## Pruning ##
+
+if run_stage prune; then
+    # Prune all but the current and previous databases and reports.
+    echo "Pruning obsolete databases and reports..."
+    prune="$bin_dir/prune.sh"
+    if [ ! -e $prune ]; then
+        (>&2 echo "Prune script was not found: $prune")
+        exit 1
+    fi
+    if $DRY_RUN; then
+        prune_args='--dry-run'
+    else
+        prune_args=""
+    fi
+    eval "$prune $prune_args"
+    rc=$?
+    if [ "${rc}" -ne 0 ]; then
+        (>&2 echo "Pruning was not successful")
+        exit ${rc}
+    fi
+    complete_stage prune
 fi
 
 # Delete the created dry run report directory, if necessary.
@@ -0,0 +1,173 @@
+package org.reactome.release.qa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the {@link NdjsonExport} records and offset index.
+ */
+public class NdjsonExportTest {
+
+    private static final String COORDINATOR = "boss@example.org";
+
+    private static final String SMITH = "smith@example.org";
+
+    private static final String DOE = "doe@example.org";
+
+    private static final List<String> HEADERS =
+            Arrays.asList("DB_ID", "DisplayName", "MostRecentAuthor");
+
+    // The padding which makes the Smith recipient set exceed the bucket size.
+    private static final String PADDING = String.join("", Collections.nCopies(100, "x"));
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // The expected {recipient: row count} map.
+    private final Map<String, Integer> recipientRows = new HashMap<String, Integer>();
+
+    // The expected {report: row count} map.
+    private final Map<String, Integer> reportRows = new HashMap<String, Integer>();
+
+    @Test
+    public void testIndex() throws IOException {
+        File dir = tmp.getRoot();
+        File part1 = new File(dir, "part1.ndjson");
+        NdjsonExport export = new NdjsonExport(part1);
+        // The Smith lines are interleaved with the other lines and
+        // exceed the bucket size, so that they are spilled.
+        int largeCnt = NdjsonExport.BUCKET_SIZE / PADDING.length() + 100;
+        export.beginReport("CuratorQA/Large.tsv", "High");
+        for (int i = 0; i < largeCnt; i++) {
+            write(export, "CuratorQA/Large.tsv", i, COORDINATOR, SMITH);
+            if (i % 10 == 0) {
+                write(export, "CuratorQA/Large.tsv", i, COORDINATOR, DOE);
+                write(export, "CuratorQA/Large.tsv", i, COORDINATOR);
+            }
+        }
+        export.endReport();
+        export.beginReport("CuratorQA/Small.tsv", "Blocker");
+        for (int i = 0; i < 5; i++) {
+            write(export, "CuratorQA/Small.tsv", i, COORDINATOR, DOE, SMITH);
+            write(export, "CuratorQA/Small.tsv", i, COORDINATOR, DOE);
+        }
+        export.endReport();
+        export.close();
+        byte[] part1Content = Files.readAllBytes(part1.toPath());
+        assertTrue("Bucket not spilled",
+                recipientRows.get(SMITH) * PADDING.length() > NdjsonExport.BUCKET_SIZE);
+        checkIndex(part1);
+
+        File part2 = new File(dir, "part2.ndjson");
+        export = new NdjsonExport(part2);
+        export.beginReport("ReleaseQA/Other.tsv", "Medium");
+        for (int i = 0; i < 20; i++) {
+            write(export, "ReleaseQA/Other.tsv", i, COORDINATOR, i % 2 == 0 ? SMITH : DOE);
+        }
+        export.close();
+
+        File merged = new File(dir, NdjsonExport.EXPORT_FILE_NM);
+        NdjsonExport.merge(Arrays.asList(part1, part2), merged);
+        byte[] content = Files.readAllBytes(merged.toPath());
+        byte[] prefix = Arrays.copyOf(content, part1Content.length);
+        assertArrayEquals("Merged content incorrect", part1Content, prefix);
+        Map<String, List<long[]>> recipientRuns = checkIndex(merged);
+        // The coordinator receives every line in a single run.
+        assertEquals("Coordinator run count incorrect", 1, recipientRuns.get(COORDINATOR).size());
+        // The curators have at most one run per report.
+        assertTrue("Curator run count incorrect", recipientRuns.get(SMITH).size() <= 3);
+        assertTrue("Curator run count incorrect", recipientRuns.get(DOE).size() <= 3);
+        // Only the merged export remains.
+        List<String> files = Arrays.asList(dir.list());
+        Collections.sort(files);
+        List<String> expected = Arrays.asList(merged.getName(),
+                NdjsonExport.getIndexFile(merged).getName());
+        assertEquals("Files incorrect", expected, files);
+    }
+
+    private void write(NdjsonExport export, String report, int ndx, String... recipients)
+            throws IOException {
+        String dbId = Integer.toString(ndx);
+        List<String> cells = Arrays.asList(dbId, PADDING, recipients[recipients.length - 1]);
+        export.write(Arrays.asList(recipients), dbId, HEADERS, cells);
+        reportRows.merge(report, 1, Integer::sum);
+        for (String recipient: recipients) {
+            recipientRows.merge(recipient, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Checks that each index run decodes to exactly the run row count
+     * of records which belong to the run key, and that the runs cover
+     * every record.
+     *
+     * @return the {recipient: runs} index
+     */
+    private Map<String, List<long[]>> checkIndex(File file) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        List<String> indexLines = Files.readAllLines(NdjsonExport.getIndexFile(file).toPath());
+        assertEquals("Index heading incorrect",
+                String.join("\t", NdjsonExport.INDEX_HDGS), indexLines.get(0));
+        Map<String, Integer> reportCnts = new HashMap<String, Integer>();
+        Map<String, Integer> recipientCnts = new HashMap<String, Integer>();
+        Map<String, List<long[]>> recipientRuns = new HashMap<String, List<long[]>>();
+        for (String line: indexLines.subList(1, indexLines.size())) {
+            String[] fields = line.split("\t");
+            String key = fields[1];
+            long[] run = {
+                    Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4])
+            };
+            String chunk = new String(content, (int) run[0], (int) run[1], StandardCharsets.UTF_8);
+            assertTrue("Run does not end a record: " + line, chunk.endsWith("\n"));
+            String[] records = chunk.split("\n");
+            assertEquals("Run row count incorrect: " + line, run[2], records.length);
+            for (String record: records) {
+                if (NdjsonExport.REPORT_INDEX.equals(fields[0])) {
+                    assertTrue("Record not in report: " + line,
+                            record.startsWith("{\"report\":\"" + key + "\""));
+                } else {
+                    assertTrue("Record not for recipient: " + line,
+                            getRecipients(record).contains(key));
+                }
+            }
+            Map<String, Integer> cnts;
+            if (NdjsonExport.REPORT_INDEX.equals(fields[0])) {
+                cnts = reportCnts;
+            } else {
+                cnts = recipientCnts;
+                recipientRuns.computeIfAbsent(key, k -> new ArrayList<long[]>()).add(run);
+            }
+            cnts.merge(key, records.length, Integer::sum);
+        }
+        assertEquals("Report rows incorrect", reportRows, reportCnts);
+        assertEquals("Recipient rows incorrect", recipientRows, recipientCnts);
+        return recipientRuns;
+    }
+
+    private static List<String> getRecipients(String record) {
+        int start = record.indexOf("\"recipients\":[") + "\"recipients\":[".length();
+        int end = record.indexOf(']', start);
+        List<String> recipients = new ArrayList<String>();
+        for (String quoted: record.substring(start, end).split(",")) {
+            recipients.add(quoted.substring(1, quoted.length() - 1));
+        }
+        return recipients;
+    }
+
+}
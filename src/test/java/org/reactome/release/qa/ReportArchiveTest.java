@@ -0,0 +1,77 @@
+package org.reactome.release.qa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link ReportArchive}.
+ */
+public class ReportArchiveTest {
+
+    private static final String REPORT = "DB_ID\tDisplayName\n1\tfoo\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testPack() throws IOException {
+        File rptsDir = createReportsDir();
+        File archive = new File(tmp.newFolder("archive"), "20260101.zip");
+        assertEquals("File count incorrect", 2, ReportArchive.pack(rptsDir, archive));
+        assertEquals("Entries incorrect",
+                Arrays.asList("CuratorQA/Report.tsv", "CuratorQA/summary.tsv"),
+                ReportArchive.list(archive));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        assertTrue("Entry not found", ReportArchive.read(archive, "CuratorQA/Report.tsv", os));
+        assertArrayEquals("Entry content incorrect",
+                REPORT.getBytes(StandardCharsets.UTF_8), os.toByteArray());
+        assertFalse("Missing entry found",
+                ReportArchive.read(archive, "CuratorQA/Missing.tsv", new ByteArrayOutputStream()));
+        assertEquals("Temporary file not removed",
+                Arrays.asList(archive.getName()), Arrays.asList(archive.getParentFile().list()));
+    }
+
+    @Test
+    public void testPackFailure() throws IOException {
+        File rptsDir = createReportsDir();
+        File dir = tmp.newFolder("archive");
+        // The archive cannot replace a non-empty directory.
+        File archive = new File(dir, "20260101.zip");
+        File blocker = new File(archive, "blocker");
+        assertTrue(blocker.mkdirs());
+        try {
+            ReportArchive.pack(rptsDir, archive);
+            fail("Archive failure not detected");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertTrue("Archive target replaced", blocker.isDirectory());
+        assertEquals("Temporary file not removed",
+                Arrays.asList(archive.getName()), Arrays.asList(dir.list()));
+    }
+
+    private File createReportsDir() throws IOException {
+        File rptsDir = tmp.newFolder("20260101");
+        File dir = new File(rptsDir, "CuratorQA");
+        assertTrue(dir.mkdir());
+        Files.write(new File(dir, "Report.tsv").toPath(), REPORT.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "summary.tsv").toPath(),
+                "Report\t1\n".getBytes(StandardCharsets.UTF_8));
+        return rptsDir;
+    }
+
+}
@@ -0,0 +1,73 @@
+package org.reactome.release.qa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ReportRollup}.
+ */
+public class ReportRollupTest {
+
+    @Test
+    public void testThreshold() {
+        ReportRollup rollup = new ReportRollup(createOptions(3, 2), "Class");
+        for (int i = 0; i < 3; i++) {
+            rollup.add(new ReportRollup.Row("Complex", Integer.toString(i), i, "row" + i));
+        }
+        assertFalse("Rolled up at the threshold", rollup.isRolledUp());
+        assertEquals("Rows incorrect", Arrays.asList("row0", "row1", "row2"), rollup.getLines(2));
+        rollup.add(new ReportRollup.Row("Pathway", "3", 3, "row3"));
+        assertTrue("Not rolled up above the threshold", rollup.isRolledUp());
+        assertEquals("Total incorrect", 4, rollup.getTotal());
+        List<String> expected = Arrays.asList(
+                "<tr><th colspan=2>Class: Complex - 3 issues, 2 shown</th></tr>",
+                "row2",
+                "row1",
+                "<tr><th colspan=2>Class: Pathway - 1 issues, 1 shown</th></tr>",
+                "row3");
+        assertEquals("Rollup incorrect", expected, rollup.getLines(2));
+    }
+
+    @Test
+    public void testMixedSortKeys() {
+        // The greatest keys are the non-integer keys in lexical order,
+        // followed by the integer keys in numeric order.
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(Integer.toString(i));
+        }
+        List<String> others = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            others.add(i + "a");
+        }
+        Collections.sort(others);
+        expected.addAll(others);
+        Collections.reverse(expected);
+        expected.add(null);
+        List<String> keys = new ArrayList<String>(expected);
+        Collections.shuffle(keys, new Random(7));
+        ReportRollup rollup = new ReportRollup(createOptions(0, keys.size()), null);
+        for (int i = 0; i < keys.size(); i++) {
+            rollup.add(new ReportRollup.Row("Complex", keys.get(i), i, keys.get(i)));
+        }
+        List<String> lines = rollup.getLines(1);
+        assertEquals("Sample order incorrect", expected, lines.subList(1, lines.size()));
+    }
+
+    private static ReportRollup.Options createOptions(int threshold, int samples) {
+        ReportRollup.Options options = new ReportRollup.Options();
+        options.threshold = threshold;
+        options.samples = samples;
+        return options;
+    }
+
+}
@@ -0,0 +1,26 @@
+package org.reactome.release.qa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ReportSchema}.
+ */
+public class ReportSchemaTest {
+
+    @Test
+    public void testRoles() {
+        String headerLine = String.join("\t", "DB_ID", "Referrer_DBID", "SchemaClass",
+                "MostRecentAuthor", "Date", "ModifiedDate", "date_1", "DateTime",
+                "Updated", "Validated", "Candidate", "Update_Count");
+        ReportSchema schema = ReportSchema.forHeaderLine(headerLine, "\t");
+        assertEquals("DB ID index incorrect", 0, schema.getDbIdIndex());
+        assertArrayEquals("Date indexes incorrect", new int[] { 4, 5, 6, 7 },
+                schema.getDateIndexes());
+        assertArrayEquals("Class indexes incorrect", new int[] { 2 },
+                schema.getClassIndexes());
+    }
+
+}
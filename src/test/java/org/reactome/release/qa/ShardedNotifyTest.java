@@ -0,0 +1,178 @@
+package org.reactome.release.qa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link ShardedNotify} with local worker processes on the
+ * <code>QAReports</code> test fixture.
+ *
+ * The workers read the Notify <code>resources</code> test fixture
+ * from the working directory (cf. the surefire configuration).
+ */
+public class ShardedNotifyTest {
+
+    private static final String FIXTURE = "/QAReports/20260101";
+
+    private static final String HOST_NAME = "qa.example.org";
+
+    private static final String DB_NAME = "test_slice_20260101";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testRenderMatchesInProcess() throws Exception {
+        File expectedDir = copyFixture("in-process");
+        Map<String, Map<File, File>> expected = new HashMap<String, Map<File, File>>();
+        Map<String, String> descriptions = new HashMap<String, String>();
+        Map<String, String> priorities = new HashMap<String, String>();
+        Notify.loadDescriptions(descriptions, priorities);
+        Notify.renderReports(getReportFiles(expectedDir), Notify.getCuratorEmailLookup(),
+                descriptions, priorities, HOST_NAME, DB_NAME, expected, null, null, null);
+
+        File rptsDir = copyFixture("sharded");
+        List<String> workerOpts = Arrays.asList(Notify.HOST_NAME_OPT, HOST_NAME);
+        Map<String, Map<File, File>> actual = ShardedNotify.render(rptsDir,
+                getReportFiles(rptsDir), 3, Collections.<String>emptyList(), workerOpts, null);
+
+        Map<String, Map<String, String>> expectedPaths = toRelativePaths(expected, expectedDir);
+        assertFalse("No notifications", expectedPaths.isEmpty());
+        assertEquals("Sharded notifications incorrect",
+                expectedPaths, toRelativePaths(actual, rptsDir));
+        for (Map<String, String> rptHtmlMap: expectedPaths.values()) {
+            for (String html: rptHtmlMap.values()) {
+                byte[] expectedHtml = Files.readAllBytes(new File(expectedDir, html).toPath());
+                byte[] actualHtml = Files.readAllBytes(new File(rptsDir, html).toPath());
+                assertArrayEquals("Sharded HTML incorrect: " + html, expectedHtml, actualHtml);
+            }
+        }
+        File shardDir = new File(rptsDir, ShardedNotify.SHARD_DIR_NM);
+        assertFalse("Shard directory not removed", shardDir.exists());
+    }
+
+    @Test
+    public void testRenderFailure() throws Exception {
+        File rptsDir = copyFixture("failure");
+        // The workers reject the option.
+        List<String> workerOpts = Arrays.asList("--bogus");
+        try {
+            ShardedNotify.render(rptsDir, getReportFiles(rptsDir), 2,
+                    Collections.<String>emptyList(), workerOpts, null);
+            fail("Worker failure not detected");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        File shardDir = new File(rptsDir, ShardedNotify.SHARD_DIR_NM);
+        assertFalse("Shard directory not removed", shardDir.exists());
+    }
+
+    @Test
+    public void testPartition() throws IOException {
+        int[] sizes = { 20, 90, 40, 10, 70, 50, 60, 30 };
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < sizes.length; i++) {
+            File file = tmp.newFile("report_" + i + ".tsv");
+            Files.write(file.toPath(), new byte[sizes[i]]);
+            files.add(file);
+        }
+        List<List<File>> shards = ShardedNotify.partition(files, 3);
+        assertEquals("Shard count incorrect", 3, shards.size());
+        Set<File> assigned = new HashSet<File>();
+        List<Long> totals = new ArrayList<Long>();
+        for (List<File> shard: shards) {
+            assigned.addAll(shard);
+            totals.add(shard.stream().mapToLong(File::length).sum());
+        }
+        assertEquals("Files not assigned exactly once",
+                files.size(), shards.stream().mapToInt(List::size).sum());
+        assertEquals("Files not assigned", new HashSet<File>(files), assigned);
+        // The largest first assignment is 90+30, 70+40+20 and 60+50+10.
+        Collections.sort(totals);
+        assertEquals("Shard sizes not balanced", Arrays.asList(120L, 120L, 130L), totals);
+
+        List<List<File>> small = ShardedNotify.partition(files.subList(0, 2), 5);
+        assertEquals("Excess shards not dropped", 2, small.size());
+    }
+
+    @Test
+    public void testWorkerJvmOptions() {
+        assertTrue(ShardedNotify.isWorkerJvmOption("-Xmx8G"));
+        assertTrue(ShardedNotify.isWorkerJvmOption("-Dlog4j.configurationFile=log4j2.properties"));
+        assertFalse(ShardedNotify.isWorkerJvmOption(
+                "-agentlib:jdwp=transport=dt_socket,server=y,address=5005"));
+        assertFalse(ShardedNotify.isWorkerJvmOption(
+                "-Dcom.sun.management.jmxremote.port=9010"));
+    }
+
+    private File copyFixture(String name) throws Exception {
+        Path source = new File(getClass().getResource(FIXTURE).toURI()).toPath();
+        Path target = new File(tmp.newFolder(name), source.getFileName().toString()).toPath();
+        Stream<Path> walk = Files.walk(source);
+        try {
+            for (Path path: walk.collect(Collectors.toList())) {
+                Files.copy(path, target.resolve(source.relativize(path).toString()));
+            }
+        } finally {
+            walk.close();
+        }
+        return target.toFile();
+    }
+
+    /**
+     * @return the fixture report files other than the summaries
+     */
+    private static List<File> getReportFiles(File rptsDir) {
+        List<File> files = new ArrayList<File>();
+        for (File dir: rptsDir.listFiles(File::isDirectory)) {
+            for (File file: dir.listFiles()) {
+                String fileName = file.getName();
+                if (fileName.endsWith(".tsv") && !fileName.equals("summary.tsv")) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static Map<String, Map<String, String>> toRelativePaths(
+            Map<String, Map<File, File>> notifications, File rptsDir) {
+        Path root = rptsDir.toPath();
+        Map<String, Map<String, String>> paths = new TreeMap<String, Map<String, String>>();
+        for (Entry<String, Map<File, File>> ntf: notifications.entrySet()) {
+            Map<String, String> rptHtmlMap = new TreeMap<String, String>();
+            for (Entry<File, File> entry: ntf.getValue().entrySet()) {
+                rptHtmlMap.put(root.relativize(entry.getKey().toPath()).toString(),
+                        root.relativize(entry.getValue().toPath()).toString());
+            }
+            paths.put(ntf.getKey(), rptHtmlMap);
+        }
+        return paths;
+    }
+
+}
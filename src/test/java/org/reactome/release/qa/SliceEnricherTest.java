@@ -0,0 +1,183 @@
+package org.reactome.release.qa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.reactome.release.qa.Notify.QAReport;
+
+/**
+ * Tests {@link SliceEnricher} against an embedded H2 database in
+ * MySQL mode with the slice tables used by the enricher.
+ */
+public class SliceEnricherTest {
+
+    private static final String DELIMITER = "\t";
+
+    // The number of fixture instances.
+    private static final int INSTANCE_CNT = 2 * SliceEnricher.CHUNK_SIZE + 1;
+
+    private static final String SMITH = "Smith, J, 2018-01-01";
+
+    private static final String DOE = "Doe, J, 2018-02-02";
+
+    private static final String BOSS = "Boss, B, 2018-03-03";
+
+    private Connection db;
+
+    // The number of statements prepared by the enricher.
+    private final AtomicInteger queryCnt = new AtomicInteger();
+
+    private SliceEnricher enricher;
+
+    @Before
+    public void setUp() throws SQLException {
+        db = DriverManager.getConnection("jdbc:h2:mem:;MODE=MySQL");
+        Statement stmt = db.createStatement();
+        try {
+            stmt.execute("CREATE TABLE DatabaseObject (DB_ID INT PRIMARY KEY," +
+                    " _displayName VARCHAR(255), created INT)");
+            stmt.execute("CREATE TABLE DatabaseObject_2_modified (DB_ID INT," +
+                    " modified_rank INT, modified INT)");
+            // The InstanceEdits.
+            stmt.execute("INSERT INTO DatabaseObject VALUES" +
+                    " (100000, '" + SMITH + "', NULL)," +
+                    " (100001, '" + DOE + "', NULL)," +
+                    " (100002, '" + BOSS + "', NULL)");
+            // Instance 2 was modified by Doe, then by Boss.
+            stmt.execute("INSERT INTO DatabaseObject_2_modified VALUES" +
+                    " (2, 0, 100001), (2, 1, 100002)");
+        } finally {
+            stmt.close();
+        }
+        // The instances, each created by Smith.
+        PreparedStatement insert =
+                db.prepareStatement("INSERT INTO DatabaseObject VALUES (?, ?, 100000)");
+        try {
+            for (int dbId = 1; dbId <= INSTANCE_CNT; dbId++) {
+                insert.setInt(1, dbId);
+                insert.setString(2, "name" + dbId);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        } finally {
+            insert.close();
+        }
+        enricher = new SliceEnricher(countQueries(db));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        enricher.close();
+    }
+
+    @Test
+    public void testEnrich() throws SQLException {
+        QAReport report = createReport("DB_ID\tSchemaClass\tMostRecentAuthor",
+                "1\tPathway\t",
+                "2\tComplex\t",
+                "3\tComplex\tDoe, Jane",
+                "99999\tComplex\t");
+        QAReport enriched = enricher.enrich(report);
+        List<String> expectedHeaders = Arrays.asList("DB_ID", "SchemaClass",
+                "MostRecentAuthor", SliceEnricher.DISPLAY_NAME_HEADER);
+        assertEquals("Headers incorrect", expectedHeaders, enriched.headers);
+        assertEquals("Headers not unique",
+                enriched.headers.size(), new HashSet<String>(enriched.headers).size());
+        List<List<String>> expectedLines = Arrays.asList(
+                // Never modified, so the creator is the author.
+                Arrays.asList("1", "Pathway", SMITH, "name1"),
+                // The most recent modifier is the author.
+                Arrays.asList("2", "Complex", BOSS, "name2"),
+                // An authored line keeps its author.
+                Arrays.asList("3", "Complex", "Doe, Jane", "name3"),
+                // An unknown instance is not resolved.
+                Arrays.asList("99999", "Complex", "", ""));
+        assertEquals("Lines incorrect", expectedLines, enriched.lines);
+        assertEquals("Query count incorrect", 1, queryCnt.get());
+    }
+
+    @Test
+    public void testAppendAuthor() throws SQLException {
+        QAReport report = createReport("DB_ID\tDisplayName", "1\tfoo", "99999\tbar");
+        QAReport enriched = enricher.enrich(report);
+        List<String> expectedHeaders = Arrays.asList("DB_ID", "DisplayName",
+                SliceEnricher.AUTHOR_HEADER);
+        assertEquals("Headers incorrect", expectedHeaders, enriched.headers);
+        List<List<String>> expectedLines = Arrays.asList(
+                Arrays.asList("1", "foo", SMITH),
+                Arrays.asList("99999", "bar", ""));
+        assertEquals("Lines incorrect", expectedLines, enriched.lines);
+    }
+
+    @Test
+    public void testNothingToResolve() throws SQLException {
+        QAReport report = createReport("DB_ID\tDisplayName\tMostRecentAuthor",
+                "1\tfoo\tDoe, Jane");
+        assertSame("Report changed", report, enricher.enrich(report));
+        assertEquals("Query count incorrect", 0, queryCnt.get());
+    }
+
+    @Test
+    public void testChunks() throws SQLException {
+        String[] lines = new String[INSTANCE_CNT];
+        for (int i = 0; i < INSTANCE_CNT; i++) {
+            lines[i] = (i + 1) + "\tComplex\t";
+        }
+        QAReport report = createReport("DB_ID\tDisplayName\tMostRecentAuthor", lines);
+        QAReport enriched = enricher.enrich(report);
+        // One query for each chunk rather than for each line.
+        assertEquals("Query count incorrect", 3, queryCnt.get());
+        assertEquals("Line count incorrect", INSTANCE_CNT, enriched.lines.size());
+        List<String> last = enriched.lines.get(INSTANCE_CNT - 1);
+        assertEquals("Author incorrect", SMITH, last.get(last.size() - 1));
+        // The resolved DB IDs are cached.
+        enricher.enrich(report);
+        assertEquals("Cached query count incorrect", 3, queryCnt.get());
+    }
+
+    private static QAReport createReport(String headerLine, String... lines) {
+        ReportSchema schema = ReportSchema.forHeaderLine(headerLine, DELIMITER);
+        List<List<String>> rows = new ArrayList<List<String>>(lines.length);
+        for (String line: lines) {
+            rows.add(Arrays.asList(line.split(DELIMITER, -1)));
+        }
+        return new QAReport(schema, rows);
+    }
+
+    /**
+     * @return a connection which counts the statements it prepares
+     */
+    private Connection countQueries(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.startsWith("prepare") || name.equals("createStatement")) {
+                        queryCnt.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+}